@@ -54,14 +54,39 @@ public class Aggregate extends Operator {
             }
         }
         TupleDesc child_td = child.getTupleDesc();
+        this.aggregator = newAggregator(child_td, afield, gfield, aop);
+        this.td = resultTupleDesc(child_td, afield, gfield, aop);
 
+        if (gfield == Aggregator.NO_GROUPING) {
+            aFieldName = td.getFieldName(0);
+        }
+        else {
+            gFieldName = td.getFieldName(0);
+            aFieldName = td.getFieldName(1);
+        }
+    }
+
+    /**
+     * Create the aggregator computing aop over field afield of tuples with
+     * schema child_td, grouped by field gfield.
+     */
+    static Aggregator newAggregator(TupleDesc child_td, int afield, int gfield, Aggregator.Op aop) {
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : child_td.getFieldType(gfield);
         if (child_td.getFieldType(afield) == Type.INT_TYPE) {
-            this.aggregator = new IntegerAggregator(gfield, gfield == Aggregator.NO_GROUPING ? null : child_td.getFieldType(gfield), afield, aop);
+            return new IntegerAggregator(gfield, gtype, afield, aop);
         }
         else {
-            this.aggregator = new StringAggregator(gfield, gfield == Aggregator.NO_GROUPING ? null : child_td.getFieldType(gfield), afield, aop);
+            return new StringAggregator(gfield, gtype, afield, aop);
         }
+    }
 
+    /**
+     * Returns the schema of the result of aggregating aop over field afield
+     * of tuples with schema child_td, grouped by field gfield.
+     *
+     * @see #getTupleDesc
+     */
+    static TupleDesc resultTupleDesc(TupleDesc child_td, int afield, int gfield, Aggregator.Op aop) {
         if (gfield == Aggregator.NO_GROUPING) {
             int nFields = 1;
             if (aop == Op.SUM_COUNT) {
@@ -78,9 +103,7 @@ public class Aggregate extends Operator {
             }
 
             fields[0] = nameOfAggregatorOp(aop) + "(" + child_td.getFieldName(afield) + ")";
-            aFieldName = fields[0];
-
-            td = new TupleDesc(typeAr, fields);
+            return new TupleDesc(typeAr, fields);
         }
         else {
             int nFields = 2;
@@ -94,7 +117,6 @@ public class Aggregate extends Operator {
             typeAr[0] = child_td.getFieldType(gfield);
             typeAr[1] = Type.INT_TYPE;//child_td.getFieldType(afield);
             fields[0] = child_td.getFieldName(gfield);
-            gFieldName = fields[0];
 
             fields[1] = nameOfAggregatorOp(aop) + "("
                     + child_td.getFieldName(afield) + ")";
@@ -104,9 +126,7 @@ public class Aggregate extends Operator {
                 fields[2] = "";
             }
 
-            aFieldName = fields[1];
-
-            td = new TupleDesc(typeAr, fields);
+            return new TupleDesc(typeAr, fields);
         }
     }
 
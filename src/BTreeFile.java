@@ -2,7 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
@@ -25,6 +25,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final DbFileChannel channel;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,10 +36,34 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, optionally
+	 * reading its pages from a read-only memory mapping of the file. This
+	 * saves a system call per page read for trees that are built once and
+	 * then searched many times; pages added later are mapped on demand.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param mapped - whether to read pages through a memory mapping
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean mapped) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new DbFileChannel(f, mapped);
+	}
+
+	/**
+	 * Returns true if pages are read through a memory mapping of the file.
+	 */
+	public boolean isMemoryMapped() {
+		return channel.isMapped();
 	}
 
 	/**
@@ -79,14 +104,12 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
+				int retval = channel.read(ByteBuffer.wrap(pageBuf), 0);
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -99,13 +122,8 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
+				int retval = channel.read(ByteBuffer.wrap(pageBuf), pageOffset(id));
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BufferPool.getPageSize()) {
@@ -128,17 +146,18 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
+	/**
+	 * Return the offset in the file at which the page with this id starts
+	 */
+	private static long pageOffset(PageId pid) {
+		if(((BTreePageId) pid).pgcateg() == BTreePageId.ROOT_PTR)
+			return 0L;
+		return BTreeRootPtrPage.getPageSize() + (long) (pid.pageNumber()-1) * BufferPool.getPageSize();
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -146,21 +165,24 @@ public class BTreeFile implements DbFile {
 	 * @param page - the page to write to disk
 	 */
 	public void writePage(Page page) throws IOException {
-		BTreePageId id = (BTreePageId) page.getId();
-		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		channel.write(page.getPageData(), pageOffset(page.getId()));
 	}
 	
+	// see DbFile.java for javadocs
+	public void writePages(List<Page> pages) throws IOException {
+		BatchPageWriter.write(channel, pages, BTreeFile::pageOffset);
+	}
+
+	// see DbFile.java for javadocs
+	public void sync() throws IOException {
+		channel.force();
+	}
+
+	// see DbFile.java for javadocs
+	public void close() {
+		channel.close();
+	}
+
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
@@ -1035,13 +1057,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				channel.write(emptyRootPtrData, 0);
+				channel.write(emptyLeafData, emptyRootPtrData.length);
 			}
 		}
 
@@ -1097,11 +1116,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				channel.write(emptyData, f.length());
 				emptyPageNo = numPages();
 			}
 		}
@@ -1132,10 +1148,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(BTreePage.createEmptyPageData(), pageOffset(newPageId));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1256,6 +1269,47 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	/**
+	 * Return the leaves that follow leaf in key order, as far as its
+	 * parent lists them, for a scan along the leaves to read ahead. The
+	 * parent is only consulted if it is in the BufferPool, and without
+	 * locking it: the result is a hint, and a stale one only makes the scan
+	 * prefetch pages it does not read. A parent that is not in the pool is
+	 * prefetched, so the scan can use it at the next leaf.
+	 * 
+	 * @param leaf - the leaf the scan is on
+	 * @param n - the most leaves to return
+	 */
+	static List<BTreePageId> nextLeaves(BTreeLeafPage leaf, int n) {
+		ArrayList<BTreePageId> next = new ArrayList<BTreePageId>();
+		BTreePageId parentId = leaf.getParentId();
+		if (n <= 0 || parentId.pgcateg() != BTreePageId.INTERNAL)
+			return next;
+		Page parent = Database.getBufferPool().peekPage(parentId);
+		if (!(parent instanceof BTreeInternalPage)) {
+			Database.getBufferPool().prefetch(parentId);
+			return next;
+		}
+		try {
+			boolean found = false;
+			boolean first = true;
+			Iterator<BTreeEntry> it = ((BTreeInternalPage) parent).iterator();
+			while (it.hasNext() && next.size() < n) {
+				BTreeEntry e = it.next();
+				if (first && e.getLeftChild().equals(leaf.getId()))
+					found = true;
+				first = false;
+				if (found)
+					next.add(e.getRightChild());
+				else if (e.getRightChild().equals(leaf.getId()))
+					found = true;
+			}
+		} catch (RuntimeException e) {
+			// the parent changed while we looked at it
+			next.clear();
+		}
+		return next;
+	}
 }
 
 /**
@@ -1268,6 +1322,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	TransactionId tid;
 	BTreeFile f;
+	ReadAhead readAhead;
 
 	/**
 	 * Constructor for this iterator
@@ -1277,6 +1332,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
 		this.f = f;
 		this.tid = tid;
+		this.readAhead = new ReadAhead();
 	}
 
 	/**
@@ -1287,6 +1343,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		readAhead.beforeRead(curp.getId());
+		readAhead.prefetch(BTreeFile.nextLeaves(curp, Database.getBufferPool().getReadAheadWindow()));
 		it = curp.iterator();
 	}
 
@@ -1307,8 +1365,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				curp = null;
 			}
 			else {
+				readAhead.beforeRead(nextp);
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				readAhead.prefetch(BTreeFile.nextLeaves(curp, Database.getBufferPool().getReadAheadWindow()));
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1336,6 +1396,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		it = null;
 		curp = null;
 	}
+
+	@Override
+	public ReadAhead getReadAhead() {
+		return readAhead;
+	}
 }
 
 /**
@@ -1350,6 +1415,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	TransactionId tid;
 	BTreeFile f;
 	IndexPredicate ipred;
+	ReadAhead readAhead;
 
 	/**
 	 * Constructor for this iterator
@@ -1361,6 +1427,10 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		this.f = f;
 		this.tid = tid;
 		this.ipred = ipred;
+		// a scan that stops at an upper bound could not tell how far to
+		// read ahead, so only scans that run to the last leaf do
+		if (ipred.getOp() == Op.GREATER_THAN || ipred.getOp() == Op.GREATER_THAN_OR_EQ)
+			this.readAhead = new ReadAhead();
 	}
 
 	/**
@@ -1378,6 +1448,10 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		else {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		}
+		if (readAhead != null) {
+			readAhead.beforeRead(curp.getId());
+			readAhead.prefetch(BTreeFile.nextLeaves(curp, Database.getBufferPool().getReadAheadWindow()));
+		}
 		it = curp.iterator();
 	}
 
@@ -1416,8 +1490,12 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
+				if (readAhead != null)
+					readAhead.beforeRead(nextp);
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
+				if (readAhead != null)
+					readAhead.prefetch(BTreeFile.nextLeaves(curp, Database.getBufferPool().getReadAheadWindow()));
 				it = curp.iterator();
 			}
 		}
@@ -1440,4 +1518,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 	}
+
+	@Override
+	public ReadAhead getReadAhead() {
+		return readAhead;
+	}
 }
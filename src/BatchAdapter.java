@@ -0,0 +1,77 @@
+package simpledb;
+
+/**
+ * BatchAdapter turns a DbIterator into a BatchIterator, so a tuple operator
+ * can feed a batch operator. It pulls tuples from its child one at a time
+ * and returns them in batches.
+ */
+public class BatchAdapter extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int batchSize;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child the iterator to read tuples from
+     */
+    public BatchAdapter(DbIterator child) {
+        this(child, TupleBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param child the iterator to read tuples from
+     * @param batchSize the most tuples in a batch
+     */
+    public BatchAdapter(DbIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns child itself if it is a BatchDbIterator, since its batches
+     * can be read directly, and a BatchAdapter over child otherwise.
+     */
+    public static BatchIterator of(DbIterator child) {
+        if (child instanceof BatchDbIterator)
+            return ((BatchDbIterator) child).getChild();
+        return new BatchAdapter(child);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(getTupleDesc(), batchSize);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.add(child.next());
+        return batch.isEmpty() ? null : batch;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[0];
+    }
+
+    /** @return the iterator this adapter reads from */
+    public DbIterator getChild() {
+        return child;
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb;
+
+/**
+ * BatchAggregate is the batch counterpart of Aggregate: it merges its
+ * child's tuples into an Aggregator a batch at a time, and returns the
+ * groups in batches.
+ */
+public class BatchAggregate extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private final int afield, gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    private transient Aggregator aggregator;
+    private transient DbIterator itr;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child
+     *            The BatchIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.td = Aggregate.resultTupleDesc(child.getTupleDesc(), afield, gfield, aop);
+    }
+
+    /** @see Aggregate#getTupleDesc */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        aggregator = Aggregate.newAggregator(child.getTupleDesc(), afield, gfield, aop);
+        itr = null;
+        batch = new TupleBatch(td);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        if (itr != null)
+            itr.close();
+        itr = null;
+        aggregator = null;
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (itr != null)
+            itr.rewind();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        if (itr == null) {
+            TupleBatch in;
+            while ((in = child.nextBatch()) != null) {
+                for (int i = 0; i < in.size(); i++)
+                    aggregator.mergeTupleIntoGroup(in.get(i));
+            }
+            itr = aggregator.iterator();
+            itr.open();
+        }
+        batch.clear();
+        while (!batch.isFull() && itr.hasNext())
+            batch.add(itr.next());
+        return batch.isEmpty() ? null : batch;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child };
+    }
+}
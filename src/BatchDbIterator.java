@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchDbIterator turns a BatchIterator into a DbIterator, so a batch
+ * operator can be used anywhere a plan expects a tuple operator. It returns
+ * the tuples of its child's batches one at a time.
+ */
+public class BatchDbIterator implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient TupleBatch batch = null;
+    private int pos = 0;
+    private boolean open = false;
+
+    /**
+     * @param child the batch iterator to read tuples from
+     */
+    public BatchDbIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * Returns the batch iterator of child if it is a BatchAdapter, since
+     * it can be read directly, and a BatchDbIterator over child otherwise.
+     */
+    public static DbIterator of(BatchIterator child) {
+        if (child instanceof BatchAdapter)
+            return ((BatchAdapter) child).getChild();
+        return new BatchDbIterator(child);
+    }
+
+    /** @return the batch iterator this iterator reads from */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        pos = 0;
+        open = true;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!open)
+            throw new IllegalStateException("iterator not yet open");
+        while (batch == null || pos == batch.size()) {
+            batch = child.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return batch.get(pos++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!open)
+            throw new IllegalStateException("iterator not yet open");
+        child.rewind();
+        batch = null;
+        pos = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        open = false;
+        batch = null;
+        child.close();
+    }
+}
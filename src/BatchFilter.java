@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch counterpart of Filter: it returns the tuples of
+ * its child's batches that satisfy a predicate, filtering each batch in
+ * place.
+ */
+public class BatchFilter extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private final Predicate p;
+
+    // true when the child is a scan that applies the predicate itself
+    private boolean pushed = false;
+
+    /**
+     * @param p
+     *            The predicate to filter tuples with
+     * @param child
+     *            The child operator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        pushed = child instanceof BatchSeqScan && ((BatchSeqScan) child).pushPredicate(p);
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            if (pushed || batch.retain(p) > 0)
+                return batch;
+        }
+        return null;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child };
+    }
+}
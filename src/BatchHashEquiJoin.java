@@ -0,0 +1,150 @@
+package simpledb;
+
+/**
+ * BatchHashEquiJoin is the batch counterpart of HashEquiJoin. It builds a
+ * hash table on up to MAP_SIZE tuples of its left child at a time, then
+ * probes it with each batch of its right child, rescanning the right child
+ * for every block of the left one.
+ */
+public class BatchHashEquiJoin extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The most left tuples in the hash table at once. */
+    public static final int MAP_SIZE = 20000;
+
+    private final JoinPredicate p;
+    private BatchIterator child1, child2;
+    private final TupleDesc td;
+    private final int fields1;
+
+    private transient JoinHashTable map;
+    private transient TupleBatch out;
+    private transient TupleBatch build, probe;
+    private int buildIdx, probeIdx;
+    private boolean built, buildDone, done;
+    private transient Tuple current2;
+    // the next left tuple that matches current2, or -1
+    private int matchRow = -1;
+
+    /**
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.fields1 = child1.getTupleDesc().numFields();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        map = new JoinHashTable(child1.getTupleDesc().getFieldType(p.getField1()));
+        out = new TupleBatch(td);
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        map = null;
+        out = null;
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        if (map != null)
+            map.clear();
+        build = probe = null;
+        buildIdx = probeIdx = 0;
+        matchRow = -1;
+        built = buildDone = done = false;
+        current2 = null;
+    }
+
+    /**
+     * Load the next block of left tuples into the hash table, rewinding the
+     * right child if it was read for the block before.
+     *
+     * @return false if the left child has no more tuples
+     */
+    private boolean buildNext() throws DbException, TransactionAbortedException {
+        map.clear();
+        matchRow = -1;
+        if (built)
+            child2.rewind();
+        int count = 0;
+        int f1 = p.getField1();
+        while (count < MAP_SIZE && !buildDone) {
+            if (build == null || buildIdx == build.size()) {
+                build = child1.nextBatch();
+                buildIdx = 0;
+                if (build == null) {
+                    buildDone = true;
+                    break;
+                }
+            }
+            Tuple t1 = build.get(buildIdx++);
+            map.add(t1.getField(f1), t1);
+            count++;
+        }
+        built = count > 0;
+        done = !built;
+        return built;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < fields1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = fields1; i < td.numFields(); i++)
+            t.setField(i, t2.getField(i - fields1));
+        return t;
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        out.clear();
+        int f2 = p.getField2();
+        while (!done && !out.isFull()) {
+            if (matchRow >= 0) {
+                out.add(merge(map.get(matchRow), current2));
+                matchRow = map.next(matchRow);
+            } else if (probe != null && probeIdx < probe.size()) {
+                current2 = probe.get(probeIdx++);
+                matchRow = map.first(current2.getField(f2));
+            } else if (built && (probe = child2.nextBatch()) != null) {
+                probeIdx = 0;
+            } else {
+                buildNext();
+            }
+        }
+        return out.isEmpty() ? null : out;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child1, child2 };
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the iterator interface of operators that return tuples
+ * a batch at a time rather than one at a time, so that a plan makes one
+ * call per operator per batch instead of one per tuple. Like DbIterator,
+ * the methods other than open and getTupleDesc throw an
+ * IllegalStateException if the iterator is not open; open opens the
+ * iterator's children, and close closes them.
+ * <p>
+ * BatchAdapter makes a BatchIterator out of any DbIterator, and
+ * BatchDbIterator makes a DbIterator out of any BatchIterator, so batch
+ * and tuple operators can be mixed in one plan.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of tuples. The iterator may reuse the returned
+     * batch for the batch after it, so a caller has to be done with the
+     * batch before the next call; the tuples in it are never reused, and
+     * can be kept.
+     *
+     * @return the next batch, holding at least one tuple, or null if there
+     *         are no more tuples.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc of the tuples in the batches.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+/**
+ * Abstract class for implementing batch operators, the batch counterpart of
+ * Operator. It handles <code>nextBatch</code> and <code>close</code>;
+ * subclasses only need to implement <code>open</code>,
+ * <code>fetchNextBatch</code> and <code>rewind</code>.
+ */
+public abstract class BatchOperator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean open = false;
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        return fetchNextBatch();
+    }
+
+    /**
+     * Returns the next batch of the iterator, or null if the iteration is
+     * finished. The batch must hold at least one tuple.
+     */
+    protected abstract TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException;
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.open = true;
+    }
+
+    /**
+     * Closes this iterator. If overridden by a subclass, they should call
+     * super.close() in order for BatchOperator's internal state to be
+     * consistent.
+     */
+    public void close() {
+        this.open = false;
+    }
+
+    /**
+     * @return the children of this operator, in the same order as the
+     *         children of the tuple operator it corresponds to
+     */
+    public abstract BatchIterator[] getChildren();
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BatchPageWriter writes a batch of pages of one file with as few system
+ * calls as possible. The pages are split into runs that are contiguous on
+ * disk, and each run is issued as a single gathering write, so a commit
+ * that dirtied pages 3, 4, 5 and 9 costs two writes instead of four.
+ */
+class BatchPageWriter {
+
+    /** Maps a page to the byte offset in its file where it is stored. */
+    interface Layout {
+        long offsetOf(PageId pid);
+    }
+
+    private BatchPageWriter() {
+    }
+
+    /**
+     * Write the pages, which must be sorted by their offset in the file.
+     *
+     * @param ch the channel of the file the pages belong to
+     * @param pages the pages to write, sorted by offset
+     * @param layout where each page lives in the file
+     */
+    static void write(DbFileChannel ch, List<Page> pages, Layout layout) throws IOException {
+        int i = 0;
+        while (i < pages.size()) {
+            long start = layout.offsetOf(pages.get(i).getId());
+            ArrayList<ByteBuffer> run = new ArrayList<ByteBuffer>();
+            long end = start;
+            while (i < pages.size() && layout.offsetOf(pages.get(i).getId()) == end) {
+                ByteBuffer data = pages.get(i).getPageDataSnapshot();
+                run.add(data);
+                end += data.remaining();
+                i++;
+            }
+            ch.write(run.toArray(new ByteBuffer[run.size()]), start);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * BatchProject is the batch counterpart of Project: it returns the chosen
+ * fields of each tuple of its child, a batch at a time.
+ */
+public class BatchProject extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+    private transient TupleBatch batch;
+
+    /**
+     * @param fieldList
+     *            The ids of the fields child's tupleDesc to project out
+     * @param types
+     *            the types of the fields in the final projection
+     * @param child
+     *            The child operator
+     */
+    public BatchProject(ArrayList<Integer> fieldList, Type[] types, BatchIterator child) {
+        this.child = child;
+        this.outFieldIds = new int[fieldList.size()];
+        String[] fieldAr = new String[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < fieldAr.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            fieldAr[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        td = new TupleDesc(types, fieldAr);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch in = child.nextBatch();
+        if (in == null)
+            return null;
+        if (batch == null || batch.capacity() < in.size())
+            batch = new TupleBatch(td, Math.max(in.capacity(), TupleBatch.DEFAULT_SIZE));
+        batch.clear();
+        for (int i = 0; i < in.size(); i++) {
+            Tuple t = in.get(i);
+            Tuple newTuple = new Tuple(td);
+            newTuple.setRecordId(t.getRecordId());
+            for (int j = 0; j < outFieldIds.length; j++)
+                newTuple.setField(j, t.getField(outFieldIds[j]));
+            batch.add(newTuple);
+        }
+        return batch;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { child };
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the batch counterpart of SeqScan: it returns the tuples
+ * of a table in the same order, a batch at a time. A heap file is read a
+ * page at a time, each page filling the batch in one pass over its slots;
+ * other files are read through their DbFileIterator.
+ */
+public class BatchSeqScan extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final SeqScan scan;
+    private final int batchSize;
+    private Predicate predicate = null;
+
+    private final HeapFile heapFile;
+    private transient ReadAhead readAhead;
+    private transient TupleBatch batch;
+    private transient HeapPage page;
+    private int pageNo;
+    private int slot;
+
+    /**
+     * Creates a scan over the specified table as a part of the specified
+     * transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as in SeqScan
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, TupleBatch.DEFAULT_SIZE);
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableid) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid));
+    }
+
+    /**
+     * @param batchSize the most tuples in a batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int batchSize) {
+        this.tid = tid;
+        this.scan = new SeqScan(tid, tableid, tableAlias);
+        this.batchSize = batchSize;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        this.heapFile = f instanceof HeapFile ? (HeapFile) f : null;
+    }
+
+    /** @see SeqScan#getTableName */
+    public String getTableName() {
+        return scan.getTableName();
+    }
+
+    /** @see SeqScan#getAlias */
+    public String getAlias() {
+        return scan.getAlias();
+    }
+
+    /**
+     * Have this scan return only the tuples that satisfy p, as
+     * SeqScan.pushPredicate does. Must be called before open().
+     *
+     * @return true if the predicate was pushed into the scan; if false, the
+     *         scan is unchanged and the caller must apply p itself
+     */
+    public boolean pushPredicate(Predicate p) {
+        if (heapFile == null)
+            return false;
+        predicate = p;
+        return true;
+    }
+
+    /**
+     * Returns the read-ahead of the scan, or null if the table's file does
+     * not read ahead.
+     */
+    public ReadAhead getReadAhead() {
+        return heapFile != null ? readAhead : scan.getReadAhead();
+    }
+
+    /** @see SeqScan#getTupleDesc */
+    public TupleDesc getTupleDesc() {
+        return scan.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (heapFile != null) {
+            final int tableid = heapFile.getId();
+            readAhead = new ReadAhead(n -> new HeapPageId(tableid, n), heapFile::numPages);
+            pageNo = -1;
+            page = null;
+        } else {
+            scan.open();
+        }
+        batch = new TupleBatch(getTupleDesc(), batchSize);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (heapFile == null)
+            scan.close();
+        page = null;
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (heapFile != null) {
+            pageNo = -1;
+            page = null;
+        } else {
+            scan.rewind();
+        }
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        if (heapFile == null) {
+            while (!batch.isFull() && scan.hasNext())
+                batch.add(scan.next());
+        } else {
+            while (!batch.isFull()) {
+                if (page == null || slot == page.numSlots) {
+                    if (pageNo + 1 >= heapFile.numPages())
+                        break;
+                    pageNo++;
+                    readAhead.beforeRead(pageNo);
+                    HeapPageId pid = new HeapPageId(heapFile.getId(), pageNo);
+                    page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                    slot = 0;
+                }
+                slot = page.readTuples(slot, predicate, batch);
+            }
+        }
+        return batch.isEmpty() ? null : batch;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[0];
+    }
+}
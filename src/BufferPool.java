@@ -1,10 +1,11 @@
 package simpledb;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -28,19 +29,56 @@ public class BufferPool {
      constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** The most pages a scan reads ahead by default. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    // reads pages ahead of sequential scans; shared by every pool
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "BufferPool prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
     final int numPages;   // number of pages -- currently, not enforced
-    private LRUCache<PageId,Page> pages; // hash table storing current pages in memory
-    private final Map<PageId, Page> pageIdOfPages;
+    private final PageTable pages; // pages currently in memory
+    private final LockManager lockManager;
+    // pages handed back dirty by insertTuple/deleteTuple, per transaction;
+    // together with the pages a transaction has locked, this covers every
+    // page it can have dirtied
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> dirtiedPages;
+    // pages a transaction's bulk loads wrote straight to their files, which
+    // are on disk before it commits, unlike every other page it dirties
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> appendedPages;
+    // prefetches in flight, completed when the page is in the pool or the
+    // read was dropped; a page removed from the pool while its prefetch
+    // reads it loses its entry, and the read is then dropped
+    private final ConcurrentHashMap<PageId, CompletableFuture<Void>> prefetching;
+    private volatile int readAheadWindow;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting
+     * with a scan resistant CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy that chooses which page to evict
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
         this.numPages = numPages;
-        this.pages =new LRUCache<>(numPages);
-        this.pageIdOfPages = new HashMap<PageId, Page>();
+        this.pages = new PageTable(numPages, Runtime.getRuntime().availableProcessors(), policy);
+        this.lockManager = new LockManager();
+        this.dirtiedPages = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        this.appendedPages = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        this.prefetching = new ConcurrentHashMap<PageId, CompletableFuture<Void>>();
+        this.readAheadWindow = Math.min(DEFAULT_READ_AHEAD_PAGES, numPages / 8);
     }
 
     public static int getPageSize() {
@@ -74,25 +112,145 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        // XXX Yuan points out that HashMap is not synchronized, so this is buggy.
         // XXX TODO(ghuo): do we really know enough to implement NO STEAL here?
         //     won't we still evict pages?
-        Page p;
+
+        // block for the page lock before touching the pool monitor, so a
+        // waiting transaction does not stall lookups of unrelated pages
+        lockManager.acquire(tid, pid, perm);
+
+        // a hit only touches the page table, never the pool monitor
+        Page p = pages.get(pid);
+        if (p != null)
+            return p;
+
+        // a page being prefetched is about to arrive; reading it again
+        // would only duplicate the I/O
+        CompletableFuture<Void> prefetch = prefetching.get(pid);
+        if (prefetch != null) {
+            prefetch.join();
+            p = pages.get(pid);
+            if (p != null)
+                return p;
+        }
+
+        // misses are serialized so that eviction keeps the pool within
+        // numPages and never races with a flush or a rollback
         synchronized(this) {
             p = pages.get(pid);
             if(p == null) {
-                if(pages.size() >= numPages) {
+                while(pages.size() >= numPages) {
                     evictPage();
                 }
 
                 p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                pages.put(pid, p);
+                pages.put(p);
             }
         }
 
         return p;
     }
 
+    /**
+     * Return true if the page is in the pool. Takes no lock.
+     */
+    boolean isCached(PageId pid) {
+        return pages.containsKey(pid);
+    }
+
+    /**
+     * Return the page if it is in the pool, without locking it or counting
+     * it as used, or null. The page may change while the caller looks at
+     * it, so it can only serve as a hint, such as where a scan goes next.
+     */
+    Page peekPage(PageId pid) {
+        return pages.peek(pid);
+    }
+
+    /**
+     * Set how many pages sequential scans read ahead of themselves, or 0
+     * to turn read-ahead off. The default is DEFAULT_READ_AHEAD_PAGES, or
+     * an eighth of the pool if that is less, so that prefetched pages do
+     * not push out too many of the pages in use.
+     *
+     * @see ReadAhead
+     */
+    public void setReadAheadWindow(int pages) {
+        readAheadWindow = pages;
+    }
+
+    /** Returns how many pages sequential scans read ahead of themselves. */
+    public int getReadAheadWindow() {
+        return readAheadWindow;
+    }
+
+    /**
+     * Start reading a page into the pool in the background, without
+     * locking it. The page is added to the pool as read from disk, so it
+     * is what a transaction taking the lock would read itself; if the page
+     * is removed from the pool while it is being read, because a change to
+     * it was written to disk and the cached copy discarded, the read is
+     * dropped. It is also dropped if the pool is full of dirty pages.
+     *
+     * @return true if a read was started, false if the page is already in
+     *         the pool or being prefetched
+     */
+    boolean prefetch(final PageId pid) {
+        if (pages.containsKey(pid))
+            return false;
+        final CompletableFuture<Void> token = new CompletableFuture<Void>();
+        if (prefetching.putIfAbsent(pid, token) != null)
+            return false;
+        prefetcher.execute(() -> {
+            try {
+                Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                synchronized (BufferPool.this) {
+                    if (!prefetching.remove(pid, token) || pages.containsKey(pid))
+                        return;
+                    if (pages.size() >= numPages) {
+                        Page victim = pages.victim(v -> v.isDirty() == null);
+                        if (victim == null)
+                            return;
+                        pages.remove(victim);
+                        forgetPrefetch(victim.getId());
+                    }
+                    pages.put(p);
+                }
+            } catch (RuntimeException e) {
+                // the table is gone or the page does not parse; only a
+                // hint is lost
+                prefetching.remove(pid, token);
+            } finally {
+                token.complete(null);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Drop the prefetch of a page that is being removed from the pool; its
+     * read may have started before the page changed on disk.
+     */
+    private void forgetPrefetch(PageId pid) {
+        CompletableFuture<Void> prefetch = prefetching.remove(pid);
+        if (prefetch != null)
+            prefetch.complete(null);
+    }
+
+    /**
+     * Acquire a lock on a page without reading it into the pool, for pages
+     * the caller writes to disk itself, such as the pages a bulk load
+     * appends to a file.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     */
+    void lockPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        lockManager.acquire(tid, pid, perm);
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -104,7 +262,7 @@ public class BufferPool {
      */
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
-        // not necessary for lab1|lab2|lab3
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -114,14 +272,21 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2|lab3
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
-        // not necessary for lab1|lab2|lab3
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * Return the waits-for graph of this pool's lock manager. It exposes
+     * the number of deadlocks detected and the latency of victim aborts.
+     */
+    public WaitsForGraph getDeadlockStats() {
+        return lockManager.getWaitsForGraph();
     }
 
     /**
@@ -134,7 +299,56 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2|lab3
+        try {
+            if (commit) {
+                flushPages(tid);
+            } else {
+                // NO STEAL: the disk still holds the committed version of
+                // every page tid dirtied through the pool, so just forget
+                // the cached copies
+                synchronized (this) {
+                    for (Page p : pagesDirtiedBy(tid)) {
+                        pages.remove(p);
+                        forgetPrefetch(p.getId());
+                    }
+                }
+                // except for the pages its bulk loads appended
+                emptyAppendedPages(tid);
+            }
+        } finally {
+            dirtiedPages.remove(tid);
+            appendedPages.remove(tid);
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Note that tid has written the given new pages of a heap file straight
+     * to disk, so that they are emptied again if tid aborts.
+     */
+    void recordAppended(TransactionId tid, List<HeapPageId> pids) {
+        appendedPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).addAll(pids);
+    }
+
+    /**
+     * Put the pages tid appended back to the empty pages they were before,
+     * which is the before image their UPDATE records hold, and force their
+     * files. A logged transaction's abort has already done this through
+     * LogFile.rollback; a bare TransactionId has no other way back.
+     */
+    private void emptyAppendedPages(TransactionId tid) throws IOException {
+        Set<PageId> appended = appendedPages.get(tid);
+        if (appended == null)
+            return;
+        Set<HeapFile> files = new HashSet<HeapFile>();
+        for (PageId pid : appended) {
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.emptyAppendedPage(pid.pageNumber());
+            discardPage(pid);
+            files.add(file);
+        }
+        for (HeapFile file : files)
+            file.sync();
     }
 
     /**
@@ -157,11 +371,7 @@ public class BufferPool {
         // some code goes here
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> modified = file.insertTuple(tid, t);
-
-        for (Page page : modified) {
-            page.markDirty(true, tid);
-            pages.put(page.getId(), page);
-        }
+        recordDirtied(tid, modified);
     }
 
     /**
@@ -182,11 +392,41 @@ public class BufferPool {
         // some code goes here
         DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
         ArrayList<Page> modified = file.deleteTuple(tid, t);
+        recordDirtied(tid, modified);
+    }
 
+    private void recordDirtied(TransactionId tid, List<Page> modified) {
+        Set<PageId> dirtied = dirtiedPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet());
         for (Page page : modified) {
             page.markDirty(true, tid);
-            pages.put(page.getId(),page);
+            pages.put(page);
+            dirtied.add(page.getId());
+        }
+    }
+
+    /** Return the resident pages tid has locked or dirtied. */
+    private List<Page> pagesTouchedBy(TransactionId tid) {
+        Set<PageId> candidates = new HashSet<PageId>(lockManager.getLockedPages(tid));
+        Set<PageId> dirtied = dirtiedPages.get(tid);
+        if (dirtied != null)
+            candidates.addAll(dirtied);
+        ArrayList<Page> result = new ArrayList<Page>();
+        for (PageId pid : candidates) {
+            Page p = pages.peek(pid);
+            if (p != null)
+                result.add(p);
+        }
+        return result;
+    }
+
+    /** Return the resident pages whose last dirtier is tid. */
+    private List<Page> pagesDirtiedBy(TransactionId tid) {
+        ArrayList<Page> result = new ArrayList<Page>();
+        for (Page p : pagesTouchedBy(tid)) {
+            if (tid.equals(p.isDirty()))
+                result.add(p);
         }
+        return result;
     }
 
     /**
@@ -196,8 +436,13 @@ public class BufferPool {
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
-        for (PageId pageId : pageIdOfPages.keySet())
-            flushPage(pageId);
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (PageId pid : pages.pageIds()) {
+            Page p = pages.peek(pid);
+            if (p != null && p.isDirty() != null)
+                dirty.add(p);
+        }
+        writePages(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -211,6 +456,7 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         this.pages.remove(pid);
+        forgetPrefetch(pid);
     }
 
     /**
@@ -219,41 +465,108 @@ public class BufferPool {
      */
     private synchronized void flushPage(PageId pid) throws IOException {
         // some code goes here
-        Page page = pages.get(pid);
-        if (pages.containsKey(pid)){
-            TransactionId dirtyTID = page.isDirty();
-            if (dirtyTID != null){
-                Database.getLogFile().logWrite(dirtyTID, page.getBeforeImage(), page);
-                Database.getLogFile().force();
-                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                file.writePage(page);
-                page.markDirty(false, null);
-            }
-        }
+        Page page = pages.peek(pid);
+        if (page != null && page.isDirty() != null)
+            writePages(Collections.singletonList(page));
     }
 
     /** Write all pages of the specified transaction to disk.
+        This is the commit-time flush: the written pages become the new
+        before images that a later rollback would restore.
+        The UPDATE records are appended under the pool's monitor, but the
+        wait for them to reach disk is not, so that under group commit
+        the records of concurrent committers share one force of the log.
+        tid's write locks keep its pages unchanged meanwhile.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2|lab3
+        List<Page> dirty;
+        long lsn;
+        synchronized (this) {
+            dirty = pagesDirtiedBy(tid);
+            lsn = logPages(dirty);
+        }
+        if (!dirty.isEmpty())
+            Database.getLogFile().awaitDurable(lsn);
+        synchronized (this) {
+            installPages(dirty);
+            // pages tid had written out earlier, through flushPage or
+            // flushAllPages, are clean but still hold the before image from
+            // before tid began, so refresh every page tid holds, not just the
+            // ones written here
+            for (Page p : pagesTouchedBy(tid)) {
+                if (p.isDirty() == null)
+                    p.setBeforeImage();
+            }
+        }
+    }
+
+    /**
+     * Write the given dirty pages to disk following the write-ahead rule:
+     * their UPDATE records are appended and the log is forced once for
+     * the whole batch before any page is written.
+     */
+    private synchronized void writePages(List<Page> dirty) throws IOException {
+        if (dirty.isEmpty())
+            return;
+        logPages(dirty);
+        Database.getLogFile().force();
+        installPages(dirty);
+    }
+
+    /**
+     * Append an UPDATE record for each of the given dirty pages.
+     *
+     * @return the sequence number of the last record appended
+     */
+    private synchronized long logPages(List<Page> dirty) throws IOException {
+        LogFile log = Database.getLogFile();
+        synchronized (log) {
+            for (Page p : dirty)
+                log.logWrite(p.isDirty(), p.getBeforeImage(), p);
+            return log.getLastLsn();
+        }
+    }
+
+    /**
+     * Write the given pages, whose UPDATE records are on disk, to their
+     * files and mark them clean. The pages are grouped by file and sorted
+     * by page number, so each file sees sequential writes that
+     * DbFile.writePages can coalesce.
+     */
+    private synchronized void installPages(List<Page> dirty) throws IOException {
+        if (dirty.isEmpty())
+            return;
+        Map<Integer, List<Page>> byFile = new HashMap<Integer, List<Page>>();
+        for (Page p : dirty) {
+            // another flush may have written it since it was logged
+            if (p.isDirty() != null)
+                byFile.computeIfAbsent(p.getId().getTableId(), k -> new ArrayList<Page>()).add(p);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byFile.entrySet()) {
+            List<Page> filePages = e.getValue();
+            filePages.sort(Comparator.comparingInt(p -> p.getId().pageNumber()));
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(filePages);
+        }
+        Database.getLogFile().pagesWritten(dirty);
+        for (Page p : dirty)
+            p.markDirty(false, null);
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Only clean pages are considered: writing out a dirty page here would
+     * put uncommitted data on disk and cost a log force per eviction, which
+     * breaks NO STEAL.
+     *
+     * @throws DbException if every page in the buffer pool is dirty
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
-        try{
-            Page page = pages.evict();
-            // Check if non-dirty page is in cache
-            if(page == null)
-                throw new DbException("No non-dirty page found.");
-            if(page.isDirty() != null)
-                flushPage(page.getId());
-        }catch (IOException ioe){
-            throw new DbException("IOException");
-        }
+        Page page = pages.victim(p -> p.isDirty() == null);
+        if(page == null)
+            throw new DbException("All pages in the buffer pool are dirty.");
+        pages.remove(page);
+        forgetPrefetch(page.getId());
     }
 }
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * BulkLoader appends tuples to a HeapFile without going through the
+ * BufferPool. Tuples are packed into fresh page images in memory, and every
+ * PAGES_PER_WRITE full pages are appended to the end of the file with one
+ * sequential write, so the cost of a load is the cost of writing its pages
+ * rather than of finding a slot and dirtying a page for every tuple.
+ * <p>
+ * A loader running on behalf of a transaction logs one UPDATE record per
+ * page it appends, holding the page image, and holds exclusive locks on
+ * the new pages until the transaction completes: an abort, whether through
+ * Transaction.abort or BufferPool.transactionComplete, turns them back into
+ * empty pages. A loader with no transaction writes the pages without
+ * logging them, and is only for files no transaction can see yet, such as
+ * a table being converted before it is added to the catalog.
+ * <p>
+ * Loaded tuples always go to new pages; free slots on the file's existing
+ * pages are not reused. The tuples passed to add() are not given record
+ * ids.
+ */
+public class BulkLoader {
+
+    /** The number of full pages appended to the file with one write. */
+    public static final int PAGES_PER_WRITE = 64;
+
+    private final TransactionId tid;
+    private final HeapFile file;
+    private final HeapPageBuilder pages;
+    private int count = 0;
+    private boolean finished = false;
+
+    /**
+     * Create a loader appending to file.
+     *
+     * @param tid the transaction doing the load, or null to load a file no
+     *            transaction can see without logging it
+     * @param file the file to append to
+     */
+    public BulkLoader(TransactionId tid, HeapFile file) {
+        this.tid = tid;
+        this.file = file;
+        this.pages = new HeapPageBuilder(file.getTupleDesc(), PAGES_PER_WRITE);
+    }
+
+    /**
+     * Add a tuple to the load. It reaches the file when its page is full
+     * and enough pages have been filled, or at finish().
+     *
+     * @throws DbException if the tuple does not match the file's schema or
+     *         the loader is finished
+     */
+    public void add(Tuple t) throws DbException, IOException, TransactionAbortedException {
+        if (finished)
+            throw new DbException("bulk load is finished");
+        pages.add(t);
+        count++;
+        if (pages.isFull())
+            flush();
+    }
+
+    /**
+     * Append the pages filled so far, including a partly filled last page,
+     * and end the load.
+     *
+     * @return the number of tuples loaded
+     */
+    public int finish() throws IOException, TransactionAbortedException {
+        if (!finished) {
+            finished = true;
+            flush();
+        }
+        return count;
+    }
+
+    /** Returns the number of tuples added so far. */
+    public int getCount() {
+        return count;
+    }
+
+    private void flush() throws IOException, TransactionAbortedException {
+        if (pages.numPages() > 0)
+            file.appendPages(tid, pages.data(), pages.numPages());
+        pages.clear();
+    }
+}
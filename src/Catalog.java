@@ -153,6 +153,8 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for (DbFile f : id2file.values())
+            f.close();
         id2file.clear();
         id2pkey.clear();
         id2name.clear();
@@ -161,6 +163,11 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as
+     * <pre>name (field type [pk], field type, ...) [mmap]</pre>
+     * where the optional mmap after the field list opens the table in
+     * memory-mapped mode, for tables that are written once and then scanned
+     * many times.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -198,10 +205,19 @@ public class Catalog {
                         }
                     }
                 }
+                boolean mapped = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.toLowerCase().equals("mmap"))
+                        mapped = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, mapped);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
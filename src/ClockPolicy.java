@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy is a CLOCK eviction policy with refinements, borrowed in
+ * simplified form from CLOCK-Pro, that make it resistant to large
+ * sequential scans.
+ * <ul>
+ * <li> Pages enter the clock cold, with no reference credit, and a cold
+ * page is always evicted before any page that has been hit. A page that
+ * is read once by a scan and never touched again therefore never pushes
+ * out pages that are used repeatedly.
+ * <li> Hot pages are only aged, CLOCK style, once no cold page is left.
+ * <li> A hit raises a page's credit to a weight that depends on the kind
+ * of page: B+ tree internal and root pointer pages, which every index
+ * lookup passes through, survive several sweeps of the hand without a new
+ * hit, while ordinary data pages survive one.
+ * </ul>
+ * A hit is a single volatile write into the page's frame; it takes no lock
+ * and moves nothing.
+ *
+ * @Threadsafe
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    /** Credit given to a data page on a hit. */
+    static final int DATA_PAGE_WEIGHT = 1;
+    /** Credit given to a B+ tree internal or root pointer page on a hit. */
+    static final int INDEX_PAGE_WEIGHT = 3;
+
+    private final ArrayList<PageTable.Frame> ring = new ArrayList<PageTable.Frame>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+    private int hand = 0;
+
+    static int weight(Page p) {
+        if (p instanceof BTreeInternalPage || p instanceof BTreeRootPtrPage)
+            return INDEX_PAGE_WEIGHT;
+        return DATA_PAGE_WEIGHT;
+    }
+
+    public synchronized void pageAdded(PageTable.Frame frame) {
+        frame.references = 0;
+        Integer slot = freeSlots.pollFirst();
+        if (slot == null) {
+            frame.slot = ring.size();
+            ring.add(frame);
+        } else {
+            frame.slot = slot;
+            ring.set(slot, frame);
+        }
+    }
+
+    public void pageHit(PageTable.Frame frame) {
+        int w = weight(frame.page);
+        // avoid dirtying the cache line when the credit is already full
+        if (frame.references < w)
+            frame.references = w;
+    }
+
+    public synchronized void pageRemoved(PageTable.Frame frame) {
+        if (frame.slot < 0)
+            return;
+        ring.set(frame.slot, null);
+        // the slot just behind the hand is the next to be reused, which
+        // gives a new page a full revolution before it is looked at
+        freeSlots.addFirst(frame.slot);
+        frame.slot = -1;
+    }
+
+    public synchronized Page chooseVictim(Predicate<Page> evictable) {
+        int n = ring.size();
+        // cold hand: a page that has not been hit since it was loaded goes
+        // first, and nothing else is aged while such pages exist
+        for (int i = 0; i < n; i++) {
+            if (hand >= n)
+                hand = 0;
+            PageTable.Frame f = ring.get(hand++);
+            if (f != null && f.references == 0 && evictable.test(f.page))
+                return f.page;
+        }
+        // hot hand: every evictable page has been hit, so age them as
+        // plain CLOCK does. Each frame reaches zero within
+        // INDEX_PAGE_WEIGHT sweeps, so a final sweep finds any candidate.
+        for (int i = 0; i < n * (INDEX_PAGE_WEIGHT + 1); i++) {
+            if (hand >= n)
+                hand = 0;
+            PageTable.Frame f = ring.get(hand++);
+            if (f == null)
+                continue;
+            if (f.references > 0) {
+                f.references--;
+                continue;
+            }
+            if (evictable.test(f.page))
+                return f.page;
+        }
+        return null;
+    }
+}
@@ -28,6 +28,36 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk at once. Callers should pass
+     * the pages sorted by page number, so that implementations can coalesce
+     * pages that are adjacent on disk into one sequential write. The
+     * default simply writes them one at a time.
+     *
+     * @param pages The pages to write, all belonging to this file.
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
+    /**
+     * Force every page written to this file so far onto the disk. The
+     * default does nothing, for files that are not backed by the disk.
+     *
+     * @throws IOException if the file cannot be forced
+     */
+    public default void sync() throws IOException {
+    }
+
+    /**
+     * Release the open file handles of this file. The file stays usable:
+     * the next read or write opens it again.
+     */
+    public default void close() {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,218 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DbFileChannel is the one FileChannel a DbFile does all its I/O through.
+ * It is opened on first use and kept open, instead of opening the file for
+ * every page read or write. Reads and writes are positional, so threads
+ * reading different pages never contend on a shared file pointer.
+ * <p>
+ * close() may be called at any time: the next operation opens the file
+ * again. An operation that finds the channel closed under it, by close()
+ * or because another thread was interrupted during I/O, retries once on a
+ * fresh channel.
+ * <p>
+ * A channel can also be opened in mapped mode, for tables that are written
+ * once and then scanned many times. Reads are then served from a read-only
+ * memory mapping of the file instead of a system call per page; view()
+ * hands out the mapped bytes themselves, so a page can be parsed without
+ * copying it first. Writes still go through the channel and are seen
+ * through the mapping. When the file grows past the mapping it is mapped
+ * again on the next read of the new pages; the part of a file beyond 2 GB
+ * is read through the channel. The file must not shrink while it is mapped.
+ *
+ * @Threadsafe
+ */
+class DbFileChannel {
+
+    private interface Op<T> {
+        T run(FileChannel ch) throws IOException;
+    }
+
+    private final File file;
+    private final boolean mapped;
+    private volatile FileChannel ch;
+    private volatile MappedByteBuffer map;
+
+    DbFileChannel(File file) {
+        this(file, false);
+    }
+
+    /**
+     * @param file the file to do I/O on
+     * @param mapped serve reads from a memory mapping of the file
+     */
+    DbFileChannel(File file, boolean mapped) {
+        this.file = file;
+        this.mapped = mapped;
+    }
+
+    /** Return true if reads are served from a memory mapping. */
+    boolean isMapped() {
+        return mapped;
+    }
+
+    /** Return the open channel, opening the file if needed. */
+    FileChannel get() throws IOException {
+        FileChannel c = ch;
+        if (c == null) {
+            synchronized (this) {
+                c = ch;
+                if (c == null) {
+                    try {
+                        c = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    } catch (AccessDeniedException e) {
+                        c = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    }
+                    ch = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private <T> T run(Op<T> op) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            FileChannel c = get();
+            try {
+                return op.run(c);
+            } catch (ClosedByInterruptException e) {
+                forget(c);
+                throw e;
+            } catch (ClosedChannelException e) {
+                forget(c);
+                if (attempt > 0)
+                    throw e;
+            }
+        }
+    }
+
+    private synchronized void forget(FileChannel c) {
+        if (ch == c)
+            ch = null;
+    }
+
+    /**
+     * Read from position until buf is full or the file ends.
+     *
+     * @return the number of bytes read
+     */
+    int read(final ByteBuffer buf, final long position) throws IOException {
+        ByteBuffer v = view(position, buf.remaining());
+        if (v != null) {
+            int n = v.remaining();
+            buf.put(v);
+            return n;
+        }
+        final int start = buf.position();
+        return run(c -> {
+            buf.position(start);
+            while (buf.hasRemaining()) {
+                if (c.read(buf, position + buf.position() - start) < 0)
+                    break;
+            }
+            return buf.position() - start;
+        });
+    }
+
+    /**
+     * Return a read-only view of the size bytes at position in the memory
+     * mapping of the file, or null if this channel is not mapped or the
+     * bytes cannot be mapped, because they lie past the end of the file or
+     * beyond 2 GB. The caller falls back to read() in that case.
+     */
+    ByteBuffer view(long position, int size) throws IOException {
+        if (!mapped)
+            return null;
+        long end = position + size;
+        if (end > Integer.MAX_VALUE)
+            return null;
+        MappedByteBuffer m = map;
+        if (m == null || end > m.capacity()) {
+            synchronized (this) {
+                m = map;
+                if (m == null || end > m.capacity()) {
+                    // the file grew since it was mapped; map all of it again
+                    long fileSize = run(c -> c.size());
+                    final long length = Math.min(fileSize, Integer.MAX_VALUE);
+                    if (end > length)
+                        return null;
+                    m = run(c -> c.map(FileChannel.MapMode.READ_ONLY, 0, length));
+                    map = m;
+                }
+            }
+        }
+        return m.slice((int) position, size);
+    }
+
+    /** Write all of data at position. */
+    void write(byte[] data, long position) throws IOException {
+        write(ByteBuffer.wrap(data), position);
+    }
+
+    /** Write the remaining bytes of data at position. */
+    void write(final ByteBuffer data, final long position) throws IOException {
+        final int start = data.position();
+        run(c -> {
+            data.position(start);
+            while (data.hasRemaining())
+                c.write(data, position + data.position() - start);
+            return null;
+        });
+    }
+
+    /**
+     * Write the buffers, each from its start, back to back at position
+     * with one gathering write. Gathering writes go through the channel's
+     * file pointer, so they are serialized against each other.
+     */
+    void write(final ByteBuffer[] bufs, final long position) throws IOException {
+        run(c -> {
+            long remaining = 0;
+            for (ByteBuffer b : bufs) {
+                b.rewind();
+                remaining += b.remaining();
+            }
+            synchronized (c) {
+                c.position(position);
+                while (remaining > 0)
+                    remaining -= c.write(bufs);
+            }
+            return null;
+        });
+    }
+
+    /** Force everything written so far onto the disk. */
+    void force() throws IOException {
+        run(c -> {
+            c.force(false);
+            return null;
+        });
+    }
+
+    /**
+     * Close the channel and drop the mapping; both are set up again by the
+     * next operation.
+     */
+    synchronized void close() {
+        FileChannel c = ch;
+        ch = null;
+        map = null;
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // Ignore failures closing the file
+            }
+        }
+    }
+}
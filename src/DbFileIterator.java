@@ -37,4 +37,12 @@ public interface DbFileIterator{
      * Closes the iterator.
      */
     public void close();
+
+    /**
+     * Returns the read-ahead of this iterator, which reports how much of
+     * its scan was prefetched, or null if it does not read ahead.
+     */
+    public default ReadAhead getReadAhead() {
+        return null;
+    }
 }
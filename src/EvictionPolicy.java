@@ -0,0 +1,38 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool gives up when
+ * it needs room. The PageTable reports every page that enters or leaves
+ * the pool and every hit; the policy keeps whatever bookkeeping it needs
+ * in the frames it is handed.
+ * <p>
+ * pageAdded and pageRemoved are called atomically with the page table
+ * update they describe, and chooseVictim is called with the BufferPool
+ * monitor held. pageHit is called on every cache hit with no lock held
+ * at all, so it must be cheap and must not block.
+ *
+ * @see PageTable
+ * @see BufferPool#BufferPool(int, EvictionPolicy)
+ */
+public interface EvictionPolicy {
+
+    /** A page has become resident. */
+    public void pageAdded(PageTable.Frame frame);
+
+    /** A resident page has been looked up. */
+    public void pageHit(PageTable.Frame frame);
+
+    /** A page is no longer resident. */
+    public void pageRemoved(PageTable.Frame frame);
+
+    /**
+     * Return the resident page that should be evicted next, without
+     * removing it, or null if there is none.
+     *
+     * @param evictable only pages accepted by this predicate may be chosen;
+     *        the others are passed over but may still be aged
+     */
+    public Page chooseVictim(Predicate<Page> evictable);
+}
@@ -3,7 +3,10 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It is
+ * pipelined: each call to next() reads only as many tuples from the child
+ * as it takes to find the next one that passes, so a consumer that stops
+ * early, such as a Limit, stops the scan under it too.
  */
 public class Filter extends Operator {
 
@@ -12,8 +15,9 @@ public class Filter extends Operator {
     private DbIterator child;
     
     private Predicate p;
-    
-    private TupleIterator filter;
+
+    // true when the child is a scan that applies the predicate itself
+    private boolean pushed = false;
     
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -40,24 +44,12 @@ public class Filter extends Operator {
         return child.getTupleDesc();
     }
     
-    private TupleIterator tIterator(DbIterator child, Predicate predicate) throws DbException, TransactionAbortedException {
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        while (child.hasNext() == true) {
-            Tuple t = child.next();
-            if (predicate.filter(t)) {
-                tuples.add(t);
-            }
-        }
-        return new TupleIterator(getTupleDesc(), tuples);
-    }
-
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        pushed = child instanceof SeqScan && ((SeqScan) child).pushPredicate(p);
         child.open();
         super.open();
-        filter = tIterator(child, p);
-        filter.open();
     }
 
     public void close() {
@@ -68,7 +60,7 @@ public class Filter extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-    	filter.rewind();
+    	child.rewind();
     }
 
     /**
@@ -83,12 +75,12 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-    	if(filter.hasNext()) {
-    		return filter.next();
-    	}
-    	else {
-    		return null;
-    	}
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (pushed || p.filter(t))
+                return t;
+        }
+        return null;
     }
 
     @Override
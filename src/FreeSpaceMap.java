@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may have an empty slot,
+ * so that an insert can go straight to such a page instead of fetching
+ * every page of the file in turn. It is not stored on disk: HeapFile
+ * rebuilds it from the page headers the first time it is needed.
+ * <p>
+ * The map is only a hint. A page it reports may have filled up since,
+ * and a page whose inserts were rolled back is only reported again once
+ * it is read back from disk, so callers check the page itself and report
+ * what they find.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private final BitSet free = new BitSet();
+    // no page below this one has space, so searches can start here
+    private int first = 0;
+
+    /**
+     * Return the first page at or after from that may have an empty slot,
+     * or -1 if there is none. Since inserts fill the file from the front,
+     * searching from 0 does not rescan the full pages before first.
+     */
+    synchronized int nextPageWithSpace(int from) {
+        int pageNo = free.nextSetBit(Math.max(from, first));
+        if (from <= first)
+            first = pageNo < 0 ? free.length() : pageNo;
+        return pageNo;
+    }
+
+    /** Record whether the page has an empty slot. */
+    synchronized void setHasSpace(int pageNo, boolean hasSpace) {
+        free.set(pageNo, hasSpace);
+        if (hasSpace && pageNo < first)
+            first = pageNo;
+    }
+
+    /** Return the number of pages that may have an empty slot. */
+    synchronized int pagesWithSpace() {
+        return free.cardinality();
+    }
+}
@@ -3,19 +3,57 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join as a hybrid hash
+ * join. The left child is the build side: its tuples are loaded into a
+ * hash table on the join field, and each tuple of the right child is
+ * joined with the matching tuples in it, in one pass over each child.
+ * <p>
+ * When the left child does not fit in the join's memory budget, both
+ * children are split into NUM_PARTITIONS partitions by a hash of the join
+ * field. The first partition of the left child stays in memory as long as
+ * it fits, and right tuples that fall into it are joined as they arrive;
+ * the other partitions are written to spill files, and each pair of spilled
+ * partitions is then joined with a hash join of its own. A partition that
+ * still does not fit is partitioned again with a different hash, up to
+ * MAX_DEPTH times; past that, such as when most tuples share one key, it is
+ * joined a budget's worth of left tuples at a time, with a pass over the
+ * right partition for each.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
-    
+
+    /** The memory budget of a join that is not given one, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
+    /** The number of partitions an input that does not fit is split into. */
+    public static final int NUM_PARTITIONS = 16;
+
+    /** How many times a partition that does not fit is partitioned again. */
+    static final int MAX_DEPTH = 3;
+
+    private static final int BUILD = 0, PROBE = 1, PARTITIONS = 2, DONE = 3;
+
     private JoinPredicate p;
     private DbIterator child1,child2;
     private TupleDesc td;
-    private Tuple tuple1,tuple2;
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<>();
-    
-    public final static int MAP_SIZE = 20000;
+    private final long memoryBudget;
+    private final int depth;
+    // a rough count of the heap a left tuple takes in the hash table
+    private final long tupleBytes;
+
+    private transient JoinHashTable map;
+    private long mapBytes;
+    private int phase;
+    // set when the hash table holds one block of a left input that does not
+    // fit and could not be partitioned any further
+    private boolean blocked;
+    private transient SpillFile[] left, right;
+    // set when the first partition of the left child was spilled too
+    private boolean firstSpilled;
+    private int nextPartition;
+    private transient HashEquiJoin partitionJoin;
+    private long spilledBytes;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -29,13 +67,43 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor for a join with its own memory budget.
+     *
+     * @param memoryBudget
+     *            roughly how many bytes of the left relation the join keeps
+     *            in memory before it partitions both relations to disk
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, long memoryBudget) {
+        this(p, child1, child2, memoryBudget, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, long memoryBudget,
+            int depth) {
         // some code goes here
     	this.p = p;
-    	this. child1 = child1;
+    	this.child1 = child1;
     	this.child2 = child2;
-    	this.tuple1 = null;
-    	this.tuple2 = null;
     	this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.memoryBudget = memoryBudget;
+        this.depth = depth;
+        this.tupleBytes = SpillFile.heapBytes(child1.getTupleDesc());
+    }
+
+    /** @return the memory budget of the join, in bytes */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of bytes of tuples the join has written to spill
+     *         files since it was opened, including those of its partitions
+     */
+    public long getSpilledBytes() {
+        return spilledBytes + (partitionJoin != null ? partitionJoin.getSpilledBytes() : 0);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -65,6 +133,9 @@ public class HashEquiJoin extends Operator {
         // some code goes here
         child1.open();
         child2.open();
+        map = new JoinHashTable(child1.getTupleDesc().getFieldType(p.getField1()));
+        reset();
+        spilledBytes = 0;
         super.open();
     }
 
@@ -73,37 +144,191 @@ public class HashEquiJoin extends Operator {
     	super.close();
     	child1.close();
     	child2.close();
+        reset();
+        map = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
     	child1.rewind();
     	child2.rewind();
+        reset();
+    }
+
+    /**
+     * Forget the hash table and delete any spill files, to start over.
+     */
+    private void reset() {
+        if (map != null)
+            map.clear();
+        mapBytes = 0;
+        matchRow = -1;
+        tuple2 = null;
+        phase = BUILD;
+        blocked = false;
+        firstSpilled = false;
+        nextPartition = 0;
+        if (partitionJoin != null) {
+            spilledBytes += partitionJoin.getSpilledBytes();
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        deleteSpills(left);
+        deleteSpills(right);
+        left = right = null;
     }
 
-    transient Iterator<Tuple> listIt = null;
+    private static void deleteSpills(SpillFile[] files) {
+        if (files == null)
+            return;
+        for (SpillFile f : files) {
+            if (f != null)
+                f.delete();
+        }
+    }
 
     /**
-     * Returns the next tuple generated by the join, or null if there are no
-     * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
-     * <p>
-     * Note that the tuples returned from this particular implementation of Join
-     * are simply the concatenation of joining tuples from the left and right
-     * relation. Therefore, there will be two copies of the join attribute in
-     * the results. (Removing such duplicate columns can be done with an
-     * additional projection operator if needed.)
-     * <p>
-     * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
-     * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
-     * @return The next matching tuple.
-     * @see JoinPredicate#filter
+     * Returns the partition of a join field value. Each level of
+     * partitioning mixes in its depth, so that a partition is split again
+     * by different bits than the ones that formed it.
      */
-    private Tuple getTupleList() {
-    	tuple1 = listIt.next();
+    private int partition(Field key) {
+        int h = key.hashCode() + depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    private void spill(SpillFile[] files, int i, Tuple t, TupleDesc td) throws DbException {
+        if (files[i] == null)
+            files[i] = new SpillFile(td);
+        files[i].add(t);
+        spilledBytes += td.getSize();
+    }
 
+    /**
+     * Read the left child into the hash table, spilling the partitions that
+     * do not fit. Returns early with blocked set if the join cannot
+     * partition any further and the table is full.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        map.clear();
+        mapBytes = 0;
+        int field1 = p.getField1();
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            Field key = t.getField(field1);
+            if (left != null) {
+                int i = partition(key);
+                if (i != 0 || firstSpilled) {
+                    spill(left, i, t, child1.getTupleDesc());
+                    continue;
+                }
+            }
+            map.add(key, t);
+            mapBytes += tupleBytes;
+            if (mapBytes > memoryBudget) {
+                if (depth == MAX_DEPTH) {
+                    blocked = true;
+                    return;
+                }
+                partitionBuild();
+            }
+        }
+    }
+
+    /**
+     * Start partitioning the left child: move every tuple of the hash table
+     * that is not in the first partition to its spill file, and the first
+     * partition too if it does not fit on its own.
+     */
+    private void partitionBuild() throws DbException {
+        TupleDesc td1 = child1.getTupleDesc();
+        if (left == null) {
+            left = new SpillFile[NUM_PARTITIONS];
+            right = new SpillFile[NUM_PARTITIONS];
+            // rebuild the table with the first partition only
+            int field1 = p.getField1();
+            Tuple[] tuples = new Tuple[map.size()];
+            for (int row = 0; row < tuples.length; row++)
+                tuples[row] = map.get(row);
+            map.clear();
+            mapBytes = 0;
+            for (Tuple t : tuples) {
+                Field key = t.getField(field1);
+                int i = partition(key);
+                if (i == 0) {
+                    map.add(key, t);
+                    mapBytes += tupleBytes;
+                } else {
+                    spill(left, i, t, td1);
+                }
+            }
+        }
+        if (mapBytes > memoryBudget) {
+            for (int row = 0; row < map.size(); row++)
+                spill(left, 0, map.get(row), td1);
+            map.clear();
+            mapBytes = 0;
+            firstSpilled = true;
+        }
+    }
+
+    /**
+     * Join a right tuple with the hash table, or spill it if its partition
+     * was spilled. A tuple whose partition has no left tuples is dropped.
+     */
+    private void probe(Tuple t2) throws DbException {
+        Field key = t2.getField(p.getField2());
+        if (left != null) {
+            int i = partition(key);
+            if (i != 0 || firstSpilled) {
+                if (left[i] != null)
+                    spill(right, i, t2, child2.getTupleDesc());
+                return;
+            }
+        }
+        matchRow = map.first(key);
+        tuple2 = t2;
+    }
+
+    /**
+     * Move on to the join of the next pair of spilled partitions.
+     *
+     * @return false if there are none left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (partitionJoin != null) {
+            spilledBytes += partitionJoin.getSpilledBytes();
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        while (left != null && nextPartition < NUM_PARTITIONS) {
+            int i = nextPartition++;
+            if (i > 0) {
+                deleteSpills(new SpillFile[] { left[i - 1], right[i - 1] });
+                left[i - 1] = right[i - 1] = null;
+            }
+            if (left[i] == null || right[i] == null)
+                continue;
+            partitionJoin = new HashEquiJoin(p, left[i].iterator(), right[i].iterator(),
+                    memoryBudget, depth + 1);
+            partitionJoin.open();
+            return true;
+        }
+        reset();
+        phase = DONE;
+        return false;
+    }
+
+    // the next left tuple that matches tuple2, or -1
+    private int matchRow = -1;
+    private transient Tuple tuple2;
+
+    private Tuple merge(Tuple tuple1, Tuple tuple2) {
     	int index1 = 0;
     	int index2 = 0;
         int fields1 = tuple1.getTupleDesc().numFields();
@@ -123,43 +348,61 @@ public class HashEquiJoin extends Operator {
         return tuples;
     }
 
-    private boolean getMap() throws DbException, TransactionAbortedException {
-        int count = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            tuple1 = child1.next();
-            ArrayList<Tuple> list = map.computeIfAbsent(tuple1.getField(p.getField1()), k -> new ArrayList<>());
-            list.add(tuple1);
-            if (count++ == MAP_SIZE)
-                return true;
-        }
-
-        return count > 0;
-    }
-
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Logically, this is the next tuple in r1 cross r2 that
+     * satisfies the join predicate.
+     * <p>
+     * Note that the tuples returned from this particular implementation of Join
+     * are simply the concatenation of joining tuples from the left and right
+     * relation. Therefore, there will be two copies of the join attribute in
+     * the results. (Removing such duplicate columns can be done with an
+     * additional projection operator if needed.)
+     * <p>
+     * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
+     * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
+     * 
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-    	if (listIt != null && listIt.hasNext())
-            return getTupleList();
-
-        while (child2.hasNext()) {
-            tuple2 = child2.next();
-            ArrayList<Tuple> tupleList = map.get(tuple2.getField(p.getField2()));
-
-            if (tupleList == null)
-                continue;
-
-            listIt = tupleList.iterator();
-
-            return getTupleList();
+        while (true) {
+            if (matchRow >= 0) {
+                Tuple tuple1 = map.get(matchRow);
+                matchRow = map.next(matchRow);
+                return merge(tuple1, tuple2);
+            }
+            switch (phase) {
+            case BUILD:
+                build();
+                phase = PROBE;
+                break;
+            case PROBE:
+                if (child2.hasNext()) {
+                    probe(child2.next());
+                } else if (blocked) {
+                    // join the next block of the left child with another
+                    // pass over the right one
+                    blocked = false;
+                    child2.rewind();
+                    build();
+                } else {
+                    map.clear();
+                    mapBytes = 0;
+                    phase = PARTITIONS;
+                    nextPartition();
+                }
+                break;
+            case PARTITIONS:
+                if (partitionJoin != null && partitionJoin.hasNext())
+                    return partitionJoin.next();
+                nextPartition();
+                break;
+            default:
+                return null;
+            }
         }
-
-        child2.rewind();
-
-        if (getMap())
-            return fetchNext();
-        else
-        	return null;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -16,7 +17,19 @@ import java.util.*;
 public class HeapFile implements DbFile {
     private File file;
     private TupleDesc td;
-	private int numPage;
+    private final DbFileChannel channel;
+    private volatile FreeSpaceMap freeSpace;
+    // the number of pages in the file, including pages reserved but not
+    // written yet, and the number of pages the file is known to extend
+    // over on disk; -1 until read from the file. Written under appendLock.
+    private final Object appendLock = new Object();
+    private volatile int numPage = -1;
+    private int allocatedPages = -1;
+
+    /** The fewest pages the file grows by when a write runs past its end. */
+    static final int MIN_EXTENT_PAGES = 16;
+    /** The most pages the file grows by at once. */
+    static final int MAX_EXTENT_PAGES = 1024;
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -26,9 +39,34 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, false);
+	}
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally in
+     * memory-mapped mode. A mapped heap file builds its pages directly from
+     * a read-only mapping of the file, without reading each page into an
+     * array first, which suits tables that are written once and then
+     * scanned many times. Pages appended later are mapped on demand.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            whether to read pages through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
         this.file = f;
         this.td = td;
-	}
+        this.channel = new DbFileChannel(f, mapped);
+    }
+
+    /**
+     * Returns true if pages are read through a memory mapping of the file.
+     */
+    public boolean isMemoryMapped() {
+        return channel.isMapped();
+    }
 
     /**
      * Returns the File backing this HeapFile on disk.
@@ -68,16 +106,25 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
     	Page newPage;
-		byte[] table = new byte[BufferPool.getPageSize()];
 		try {
-			RandomAccessFile file = new RandomAccessFile(getFile(), "r");
-			int index = pid.pageNumber() * BufferPool.getPageSize();
-			file.seek(index);
-			file.read(table,0,table.length);
-			newPage = new HeapPage((HeapPageId) pid, table);
+			long offset = (long) pid.pageNumber() * BufferPool.getPageSize();
+			ByteBuffer view = channel.view(offset, BufferPool.getPageSize());
+			if (view != null) {
+				newPage = new HeapPage((HeapPageId) pid, view);
+			} else {
+				// a page past the end of the file reads as an empty page
+				byte[] table = new byte[BufferPool.getPageSize()];
+				channel.read(ByteBuffer.wrap(table), offset);
+				newPage = new HeapPage((HeapPageId) pid, table);
+			}
 		}catch(Exception e) {
-    		 throw new IllegalArgumentException();
+    		 throw new IllegalArgumentException(e);
 		}
+		// the page on disk is the version every transaction sees next, so
+		// the free space map can learn from it, e.g. after an abort
+		FreeSpaceMap fsm = freeSpace;
+		if (fsm != null)
+			fsm.setHasSpace(pid.pageNumber(), ((HeapPage) newPage).hasEmptySlot());
         return newPage;
     }
 
@@ -85,20 +132,212 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-			byte[] data = page.getPageData();
-			raf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
-			raf.write(data);
-			raf.close();
-		}
+		allocate(page.getId().pageNumber() + 1);
+		channel.write(page.getPageDataSnapshot(), (long) page.getId().pageNumber() * BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        // the pages are sorted, so the last one ends the furthest out
+        allocate(pages.get(pages.size() - 1).getId().pageNumber() + 1);
+        BatchPageWriter.write(channel, pages,
+                pid -> (long) pid.pageNumber() * BufferPool.getPageSize());
+    }
+
+    /**
+     * Make sure the file extends over at least end pages before pages
+     * below end are written, and count them as pages of the file. A write
+     * past the end of the file grows it by a whole extent of zeroed
+     * pages, a sixteenth of its size but at least MIN_EXTENT_PAGES and at
+     * most MAX_EXTENT_PAGES, so a file that grows a page at a time
+     * changes size on disk once per extent rather than once per page.
+     * <p>
+     * Zeroed pages read as empty pages. Pages of an extent not used yet
+     * are not counted by numPages(), but once the file is opened again
+     * they are, as empty pages that inserts will fill first.
+     */
+    private void allocate(int end) throws IOException {
+        synchronized (appendLock) {
+            if (numPage < 0)
+                numPages();
+            if (end > numPage)
+                numPage = end;
+            if (allocatedPages < 0)
+                allocatedPages = pagesOnDisk();
+            if (end <= allocatedPages)
+                return;
+            int extent = Math.max(MIN_EXTENT_PAGES, Math.min(allocatedPages / 16, MAX_EXTENT_PAGES));
+            int target = end + extent;
+            // pages below numPage are reserved and written by whoever
+            // reserved them, possibly right now; only unreserved pages are
+            // zeroed, and nobody can reserve them while we hold appendLock
+            int from = Math.max(end, numPage);
+            if (from < target) {
+                int pageSize = BufferPool.getPageSize();
+                channel.write(ByteBuffer.allocate((target - from) * pageSize), (long) from * pageSize);
+                allocatedPages = target;
+            } else {
+                allocatedPages = end;
+            }
+        }
+    }
+
+    /** Returns the number of pages the file extends over on disk. */
+    private int pagesOnDisk() {
+        return (int) ((file.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public void sync() throws IOException {
+        channel.force();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() {
+        channel.close();
+    }
+
+    /**
+     * Return the free space map of this file, building it from the page
+     * headers on disk the first time. The headers are read directly, not
+     * through the BufferPool, so building the map neither takes locks nor
+     * fills the pool.
+     */
+    FreeSpaceMap freeSpace() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpace;
+                if (fsm == null) {
+                    fsm = new FreeSpaceMap();
+                    int numSlots = HeapPage.getNumTuples(td);
+                    ByteBuffer header = ByteBuffer.allocate((numSlots + 7) / 8);
+                    int pages = numPages();
+                    for (int i = 0; i < pages; i++) {
+                        header.clear();
+                        channel.read(header, (long) i * BufferPool.getPageSize());
+                        // a short last page reads as zeroes: empty slots
+                        while (header.hasRemaining())
+                            header.put((byte) 0);
+                        fsm.setHasSpace(i, HeapPage.hasEmptySlot(header, numSlots));
+                    }
+                    freeSpace = fsm;
+                }
+            }
+        }
+        return fsm;
+    }
+
+    /**
+     * Reserve n new page numbers at the end of the file. Pages reserved but
+     * not yet written read as empty pages, so tid also gets exclusive locks
+     * on them: nobody else can put tuples on them before tid writes them.
+     *
+     * @param tid the transaction the pages are reserved for, or null if no
+     *            other transaction can see the file
+     * @param n the number of pages
+     * @return the number of the first reserved page
+     */
+    int reservePages(TransactionId tid, int n) throws TransactionAbortedException {
+        synchronized (appendLock) {
+            int start = numPages();
+            numPage = start + n;
+            if (tid != null) {
+                // new page numbers, so these never block
+                for (int i = 0; i < n; i++)
+                    Database.getBufferPool().lockPage(tid, new HeapPageId(getId(), start + i),
+                            Permissions.READ_WRITE);
+            }
+            return start;
+        }
+    }
+
+    /**
+     * Append n full page images to the end of the file with one write,
+     * bypassing the BufferPool. The write is already a large one, so it
+     * does not grow the file by an extent beyond the appended pages. If
+     * tid is not null the pages are logged
+     * first, with one UPDATE record per page whose before image is an
+     * empty page, so they are rolled back if tid aborts and redone if the
+     * system crashes after tid commits.
+     *
+     * @param tid the transaction appending the pages, or null to write
+     *            them without logging or locking, for files no transaction
+     *            can see yet
+     * @param data the page images, back to back from position 0
+     * @param n the number of pages in data
+     * @return the number of the first appended page
+     */
+    int appendPages(TransactionId tid, ByteBuffer data, int n)
+            throws IOException, TransactionAbortedException {
+        int pageSize = BufferPool.getPageSize();
+        int start = reservePages(tid, n);
+        List<Page> logged = new ArrayList<Page>(n);
+        if (tid != null) {
+            List<HeapPageId> pids = new ArrayList<HeapPageId>(n);
+            for (int i = 0; i < n; i++)
+                pids.add(new HeapPageId(getId(), start + i));
+            Database.getBufferPool().recordAppended(tid, pids);
+            LogFile log = Database.getLogFile();
+            byte[] empty = HeapPage.createEmptyPageData();
+            for (int i = 0; i < n; i++) {
+                HeapPageId pid = new HeapPageId(getId(), start + i);
+                HeapPage page = new HeapPage(pid, data.slice(i * pageSize, pageSize));
+                log.logWrite(tid, new HeapPage(pid, empty), page);
+                logged.add(page);
+            }
+            log.force();
+        }
+        channel.write(data.slice(0, n * pageSize), (long) start * pageSize);
+        synchronized (appendLock) {
+            if (allocatedPages >= 0)
+                allocatedPages = Math.max(allocatedPages, start + n);
+        }
+        if (tid != null)
+            Database.getLogFile().pagesWritten(logged);
+
+        int numSlots = HeapPage.getNumTuples(td);
+        FreeSpaceMap fsm = freeSpace;
+        for (int i = 0; i < n; i++) {
+            // a reader may have cached the empty page that was there
+            Database.getBufferPool().discardPage(new HeapPageId(getId(), start + i));
+            if (fsm != null)
+                fsm.setHasSpace(start + i, HeapPage.hasEmptySlot(data.slice(i * pageSize, pageSize), numSlots));
+        }
+        return start;
+    }
+
+    /**
+     * Overwrite a page appendPages wrote for a transaction that aborted
+     * with an empty page, the before image it was logged with.
+     */
+    void emptyAppendedPage(int pageNumber) throws IOException {
+        channel.write(ByteBuffer.wrap(HeapPage.createEmptyPageData()),
+                (long) pageNumber * BufferPool.getPageSize());
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null)
+            fsm.setHasSpace(pageNumber, true);
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. The count is read from
+     * the length of the file once and kept up to date in memory as pages
+     * are reserved and written, so it includes new pages that are not on
+     * disk yet, and not pages other HeapFiles append to the same file.
      */
     public int numPages() {
         // some code goes here
-        return (int)Math.ceil((double)this.file.length() / BufferPool.getPageSize());
+        int n = numPage;
+        if (n < 0) {
+            synchronized (appendLock) {
+                if (numPage < 0)
+                    numPage = pagesOnDisk();
+                n = numPage;
+            }
+        }
+        return n;
     }
 
     // see DbFile.java for javadocs
@@ -107,30 +346,39 @@ public class HeapFile implements DbFile {
         // some code goes here
 		ArrayList<Page> affectedPageArrayList = new ArrayList<>();
 
-		for (int i = 0; i < numPages(); i++) {
+		// only visit the pages the free space map says have room
+		FreeSpaceMap fsm = freeSpace();
+		for (int i = fsm.nextPageWithSpace(0); i >= 0 && i < numPages(); i = fsm.nextPageWithSpace(i + 1)) {
 			HeapPageId heapPID = new HeapPageId(getId(), i);
+			boolean alreadyLocked = Database.getBufferPool().holdsLock(tid, heapPID);
 			HeapPage hPage = (HeapPage) Database.getBufferPool().getPage(tid, heapPID, Permissions.READ_WRITE);
-			if (hPage.getNumEmptySlots() != 0) {
+			if (hPage.hasEmptySlot()) {
 				hPage.insertTuple(t);
 				hPage.markDirty(true, tid);
 				affectedPageArrayList.add(hPage);
+				fsm.setHasSpace(i, hPage.hasEmptySlot());
 				break;
 			}
+			fsm.setHasSpace(i, false);
+			// the page was only inspected, so it is safe to give back a lock
+			// this call took; a lock held from earlier work must be kept
+			if (!alreadyLocked)
+				Database.getBufferPool().releasePage(tid, heapPID);
 		}
 
 		//if page is full
 		if (affectedPageArrayList.size() == 0) {
-			//create a new empty page
-			HeapPageId newPID = new HeapPageId(getId(), numPages());
-			HeapPage blankPage = new HeapPage(newPID, HeapPage.createEmptyPageData());
-			numPage++;
-			//write it into disk
-			writePage(blankPage);
+			//create a new empty page; reservePages makes sure two
+			//inserters don't append the same page number
+			//the page reads as an empty page until it is written at commit
+			HeapPageId newPID = new HeapPageId(getId(), reservePages(tid, 1));
+			fsm.setHasSpace(newPID.pageNumber(), true);
 			//access through BufferPool
 			HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(tid, newPID, Permissions.READ_WRITE);
 			newPage.insertTuple(t);
 			newPage.markDirty(true, tid);
 			affectedPageArrayList.add(newPage);
+			fsm.setHasSpace(newPID.pageNumber(), newPage.hasEmptySlot());
 		}
 		return affectedPageArrayList;
         // not necessary for lab1
@@ -142,6 +390,9 @@ public class HeapFile implements DbFile {
         // some code goes here
 		HeapPage hPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), t.getRecordId().getPageId().pageNumber()), Permissions.READ_WRITE);
 		hPage.deleteTuple(t);
+		FreeSpaceMap fsm = freeSpace;
+		if (fsm != null)
+			fsm.setHasSpace(hPage.getId().pageNumber(), true);
 
 		ArrayList<Page> pages = new ArrayList<>();
 		pages.add(hPage);
@@ -155,26 +406,39 @@ public class HeapFile implements DbFile {
         // some code goes here
         return new HeapFileiterator(tid);
     }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy p. The
+     * predicate is evaluated against the raw page data, so tuples that
+     * fail it are never decoded.
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return new HeapFileiterator(tid, p);
+    }
     
     public class HeapFileiterator implements DbFileIterator {
     	
     	private int pageIndex;
     	private TransactionId tid;
     	private Iterator<Tuple> iteratorT;
+    	private final Predicate predicate;
+    	private final ReadAhead readAhead = new ReadAhead(
+    			n -> new HeapPageId(getId(), n), HeapFile.this::numPages);
     	
 		public HeapFileiterator(TransactionId tid) {
+             this(tid, null);
+         }
+
+		public HeapFileiterator(TransactionId tid, Predicate predicate) {
              this.tid = tid;
+             this.predicate = predicate;
          }
     	
-    	public Iterator<Tuple> tuplesInPage(HeapPageId pid) {
-			HeapPage page = null;
-			try {
-				page =  (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-			} catch (TransactionAbortedException | DbException e) {
-				e.printStackTrace();
-			}
-			assert page != null;
-			return page.iterator();
+    	public Iterator<Tuple> tuplesInPage(HeapPageId pid) throws TransactionAbortedException, DbException {
+			readAhead.beforeRead(pid.pageNumber());
+			// a deadlock victim must see its abort, so don't swallow it here
+			HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+			return predicate == null ? page.iterator() : page.iterator(predicate);
 		}
 
 		@Override
@@ -200,14 +464,16 @@ public class HeapFile implements DbFile {
                 return true;
             }
 			
-			 if (pageIndex < numPages() - 1) {
+			 // skip pages with nothing to return, such as pages where no
+			 // tuple satisfies the predicate
+			 while (pageIndex < numPages() - 1) {
 	                pageIndex += 1;
 	                HeapPageId pid = new HeapPageId(getId(), pageIndex);
 	                iteratorT = tuplesInPage(pid);
-	                return iteratorT.hasNext();
-	            } else {
-	            	return false;
+	                if (iteratorT.hasNext())
+	                	return true;
 	            }
+	         return false;
     }
 
 		@Override
@@ -229,6 +495,11 @@ public class HeapFile implements DbFile {
 			
 		}
 
+		@Override
+		public ReadAhead getReadAhead() {
+			return readAhead;
+		}
+
 		@Override
 		public void close() {
 			// TODO Auto-generated method stub
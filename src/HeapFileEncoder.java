@@ -1,7 +1,13 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -68,159 +74,285 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * field,...,field\n<br>
+    * field,...,field\n<br>
     * ...<br>
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
+    * <p>
+    * The input is streamed: it is cut into chunks of CHUNK_PAGES pages
+    * worth of lines, which are parsed and encoded into pages on the common
+    * fork-join pool while the next chunks are read. The pages of each
+    * chunk are appended to the output in input order. At most a few
+    * chunks per worker are in memory at a time, so memory use does not
+    * grow with the size of the input. A chunk that has blank or malformed
+    * lines leaves its last page partly empty.
     *
     * @see HeapPage
     * @see HeapFile
     * @param inFile The input file to read data from
     * @param outFile The output file to write data to
-    * @param npagebytes The number of bytes per page in the output file
+    * @param npagebytes The number of bytes per page in the output file; must
+    *   be the BufferPool's page size
     * @param numFields the number of fields in each input line/output tuple
-    * @throws IOException if the input/output file can't be opened or a
-    *   malformed input line is encountered
+    * @return the number of rows and bytes converted and how long it took
+    * @throws IOException if the input/output file can't be opened
     */
-  public static void convert(File inFile, File outFile, int npagebytes,
+  public static ConvertStats convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      if (npagebytes != BufferPool.getPageSize())
+          throw new IllegalArgumentException("pages of " + npagebytes
+                  + " bytes, but the page size is " + BufferPool.getPageSize());
+
+      long begin = System.nanoTime();
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      int rowsPerChunk = CHUNK_PAGES * HeapPage.getNumTuples(td);
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      int maxInFlight = 2 * pool.getParallelism() + 1;
+
+      new FileOutputStream(outFile).close();
+      HeapFile hf = new HeapFile(outFile, td);
+      ConvertStats stats = new ConvertStats();
+      ArrayDeque<EncodeTask> inFlight = new ArrayDeque<EncodeTask>();
+      InputStream in = new FileInputStream(inFile);
+      try {
+          byte[] block = new byte[1 << 16];
+          byte[] chunk = new byte[1 << 16];
+          int len = 0;
+          int lines = 0;
+          boolean content = false;
+          int n;
+          while ((n = in.read(block)) > 0) {
+              stats.bytes += n;
+              int start = 0;
+              for (int i = 0; i < n; i++) {
+                  byte b = block[i];
+                  if (b != '\n') {
+                      content |= b != '\r';
+                      continue;
+                  }
+                  // blank lines do not count towards filling the chunk
+                  if (content)
+                      lines++;
+                  content = false;
+                  if (lines == rowsPerChunk) {
+                      chunk = append(chunk, len, block, start, i + 1 - start);
+                      len += i + 1 - start;
+                      start = i + 1;
+                      submit(new EncodeTask(chunk, len, td, fieldSeparator, CHUNK_PAGES),
+                              inFlight, maxInFlight, hf, stats);
+                      chunk = new byte[chunk.length];
+                      len = 0;
+                      lines = 0;
+                  }
+              }
+              chunk = append(chunk, len, block, start, n - start);
+              len += n - start;
+          }
+          if (len > 0)
+              submit(new EncodeTask(chunk, len, td, fieldSeparator, CHUNK_PAGES),
+                      inFlight, maxInFlight, hf, stats);
+          while (!inFlight.isEmpty())
+              write(inFlight.poll(), hf, stats);
+          // an empty file still gets one (empty) page
+          if (stats.pages == 0) {
+              hf.appendPages(null, ByteBuffer.allocate(npagebytes), 1);
+              stats.pages = 1;
+          }
+      } catch (TransactionAbortedException e) {
+          throw new IOException(e);
+      } finally {
+          // let the encoding still running finish before giving up on it
+          for (EncodeTask t : inFlight)
+              t.quietlyJoin();
+          in.close();
+          hf.close();
+      }
+      stats.nanos = System.nanoTime() - begin;
+      return stats;
+  }
+
+  /** The number of pages of tuples in one chunk of a convert. */
+  static final int CHUNK_PAGES = 64;
+
+  /** What a convert did, and how fast. */
+  public static class ConvertStats {
+      /** Tuples written. */
+      public long rows;
+      /** Input lines skipped because they did not parse. */
+      public long badLines;
+      /** Bytes of input read. */
+      public long bytes;
+      /** Pages written. */
+      public long pages;
+      /** Time the convert took. */
+      public long nanos;
+
+      public double rowsPerSecond() {
+          return rows / (nanos / 1e9);
+      }
+
+      /** Returns the rate the input was converted at, in MB per second. */
+      public double mbPerSecond() {
+          return bytes / (double) (1 << 20) / (nanos / 1e9);
+      }
+
+      public String toString() {
+          return String.format("%d rows (%d bad lines) in %d pages, %.2f s: %.0f rows/sec, %.1f MB/sec",
+                  rows, badLines, pages, nanos / 1e9, rowsPerSecond(), mbPerSecond());
+      }
+  }
+
+  /** Parses the lines of one chunk of input and builds their pages. */
+  private static class EncodeTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final byte[] text;
+      private final int len;
+      private final TupleDesc td;
+      private final char fieldSeparator;
+      private final int maxPages;
+      HeapPageBuilder pages;
+      long badLines = 0;
+
+      EncodeTask(byte[] text, int len, TupleDesc td, char fieldSeparator, int maxPages) {
+          this.text = text;
+          this.len = len;
+          this.td = td;
+          this.fieldSeparator = fieldSeparator;
+          this.maxPages = maxPages;
+      }
+
+      protected void compute() {
+          pages = new HeapPageBuilder(td, maxPages);
+          int start = 0;
+          while (start < len) {
+              int end = start;
+              while (end < len && text[end] != '\n')
+                  end++;
+              int lineStart = start;
+              start = end + 1;
+              // Ignore Windows/Notepad special line endings and blank lines
+              while (end > lineStart && text[end - 1] == '\r')
+                  end--;
+              if (end == lineStart)
+                  continue;
+              Tuple t = parseLine(text, lineStart, end, td, fieldSeparator);
+              if (t == null) {
+                  System.out.println("BAD LINE : "
+                          + new String(text, lineStart, end - lineStart, StandardCharsets.UTF_8));
+                  badLines++;
+                  continue;
+              }
+              try {
+                  pages.add(t);
+              } catch (DbException e) {
+                  throw new RuntimeException(e);
+              }
+          }
+      }
+  }
+
+  /**
+   * Hand a chunk to the pool, first writing out the oldest chunk if too
+   * many are in memory.
+   */
+  private static void submit(EncodeTask task, ArrayDeque<EncodeTask> inFlight,
+          int maxInFlight, HeapFile hf, ConvertStats stats)
+          throws IOException, TransactionAbortedException {
+      while (inFlight.size() >= maxInFlight)
+          write(inFlight.poll(), hf, stats);
+      ForkJoinPool.commonPool().execute(task);
+      inFlight.add(task);
+  }
+
+  /** Wait for a chunk to be encoded and append its pages to the file. */
+  private static void write(EncodeTask task, HeapFile hf, ConvertStats stats)
+          throws IOException, TransactionAbortedException {
+      task.join();
+      HeapPageBuilder pages = task.pages;
+      if (pages.numPages() > 0)
+          hf.appendPages(null, pages.data(), pages.numPages());
+      stats.rows += pages.numTuples();
+      stats.pages += pages.numPages();
+      stats.badLines += task.badLines;
+  }
+
+  private static byte[] append(byte[] buf, int len, byte[] src, int off, int n) {
+      if (len + n > buf.length)
+          buf = Arrays.copyOf(buf, Math.max(2 * buf.length, len + n));
+      System.arraycopy(src, off, buf, len, n);
+      return buf;
+  }
+
+  /**
+   * Parse the line in text[start, end) into a tuple of schema td. Fields
+   * are parsed from the bytes themselves; only string fields are decoded.
+   *
+   * @return the tuple, or null if the line has the wrong number of fields
+   *   or an integer field that does not parse
+   */
+  private static Tuple parseLine(byte[] text, int start, int end, TupleDesc td,
+          char fieldSeparator) {
+      if (fieldSeparator > 0x7f) {
+          // a separator that is more than one byte in UTF-8
+          String line = new String(text, start, end - start, StandardCharsets.UTF_8);
+          byte[] bytes = line.replace(fieldSeparator, '\0').getBytes(StandardCharsets.UTF_8);
+          return parseLine(bytes, 0, bytes.length, td, '\0');
+      }
+      Tuple t = new Tuple(td);
+      int fieldStart = start;
+      for (int i = 0; i < td.numFields(); i++) {
+          if (fieldStart > end)
+              return null;
+          int fieldEnd = fieldStart;
+          while (fieldEnd < end && text[fieldEnd] != fieldSeparator)
+              fieldEnd++;
+          // trim as String.trim does
+          int s = fieldStart, e = fieldEnd;
+          while (s < e && (text[s] & 0xff) <= ' ')
+              s++;
+          while (e > s && (text[e - 1] & 0xff) <= ' ')
+              e--;
+          if (td.getFieldType(i) == Type.INT_TYPE) {
+              Integer v = parseInt(text, s, e);
+              if (v == null)
+                  return null;
+              t.setField(i, new IntField(v));
+          } else {
+              t.setField(i, new StringField(new String(text, s, e - s, StandardCharsets.UTF_8),
+                      Type.STRING_LEN));
+          }
+          fieldStart = fieldEnd + 1;
+      }
+      // more fields than the schema has
+      if (fieldStart <= end)
+          return null;
+      return t;
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
+  /** Parse a decimal int from text[start, end), or return null. */
+  private static Integer parseInt(byte[] text, int start, int end) {
+      boolean negative = start < end && text[start] == '-';
+      int i = negative || (start < end && text[start] == '+') ? start + 1 : start;
+      if (i == end)
+          return null;
+      long v = 0;
+      for (; i < end; i++) {
+          int d = text[i] - '0';
+          if (d < 0 || d > 9)
+              return null;
+          v = v * 10 + d;
+          if (v > (long) Integer.MAX_VALUE + 1)
+              return null;
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+      v = negative ? -v : v;
+      if (v > Integer.MAX_VALUE)
+          return null;
+      return (int) v;
   }
 }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,16 +16,26 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    final int headerSize;
     final int numSlots;
-    byte[] oldData;
+    // the raw bytes of the page, header bitmap included; tuples are decoded
+    // from it on access. It may be shared with the caller of the
+    // constructor, a read-only view of a mapped file or the before image,
+    // so it is copied before the first write unless ownsData is set.
+    private ByteBuffer data;
+    private volatile boolean ownsData = false;
+    private final int tupleSize;
+    private final int[] fieldOffsets;
+    // a snapshot of the data when the page was last clean
+    ByteBuffer oldData;
     private final Byte oldDataLock=new Byte((byte)0);
     private volatile boolean dirty;
     private volatile TransactionId dirtier;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
+     * The page keeps the bytes and decodes a tuple only when it is asked
+     * for; the array is not modified.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
@@ -40,27 +51,40 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page's bytes, such as a
+     * view of a memory-mapped file, reading it from its current position
+     * without copying it into an array first. The buffer's position is
+     * advanced past the page.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
         this.dirty = false;
         this.dirtier = null;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        int len = BufferPool.getPageSize();
+        if (data.remaining() >= len) {
+            this.data = data.slice(data.position(), len);
+            data.position(data.position() + len);
+        } else {
+            // a short page reads as if it were padded with zeroes
+            this.data = ByteBuffer.allocate(len);
+            this.data.put(data).clear();
+            ownsData = true;
         }
-        dis.close();
+
+        headerSize = getHeaderSize();
 
         setBeforeImage();
     }
@@ -69,6 +93,11 @@ public class HeapPage implements Page {
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
+        return getNumTuples(td);
+    }
+
+    /** Retrieve the number of tuples on a page of a table with schema td. */
+    static int getNumTuples(TupleDesc td) {
         int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
         int tuplesPerPage = (BufferPool.getPageSize()*8) / bitsPerTupleIncludingHeader; //round down
         return tuplesPerPage;
@@ -90,15 +119,16 @@ public class HeapPage implements Page {
     }
     
     /** Return a view of this page before it was modified
-        -- used by recovery */
+        -- used by recovery. The view shares the bytes of the before image,
+        and its tuples are only decoded if they are read. */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,oldDataRef.duplicate());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -107,10 +137,15 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Take the current data as the before image. Nothing is copied: the
+     * page shares its data with the before image and copies it on its next
+     * write instead.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = getPageDataSnapshot();
         }
     }
 
@@ -122,29 +157,24 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset in the page data at which the tuple in slot
+     *         slotId starts
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * tupleSize;
+    }
 
-        // read fields in the tuple
+    /**
+     * Decode the tuple in a used slot from the page data.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        int offset = slotOffset(slotId);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(data, offset + fieldOffsets[j]);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
@@ -155,6 +185,33 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * Evaluate a predicate against the tuple in a used slot, reading the
+     * field it tests straight from the page data instead of decoding the
+     * tuple.
+     *
+     * @param slotId the slot of the tuple; it must be in use
+     * @param p the predicate to evaluate
+     * @return true if the tuple satisfies the predicate
+     */
+    boolean matches(int slotId, Predicate p) {
+        int field = p.getField();
+        return td.getFieldType(field).compare(data, slotOffset(slotId) + fieldOffsets[field],
+                p.getOp(), p.getOperand());
+    }
+
+    /**
+     * Make the page data private to this page before it is written to.
+     */
+    private void ensureOwnData() {
+        if (!ownsData) {
+            ByteBuffer copy = ByteBuffer.allocate(data.capacity());
+            copy.put(0, data, 0, data.capacity());
+            data = copy;
+            ownsData = true;
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -162,69 +219,28 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * The page keeps its tuples in serialized form, so this is a copy of
+     * the page data rather than a re-serialization of every tuple; see
+     * getPageDataSnapshot for a way to avoid the copy too.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        byte[] pageData = new byte[data.capacity()];
+        data.get(0, pageData);
+        return pageData;
+    }
 
-        return baos.toByteArray();
+    /**
+     * Returns the page data without copying it. The page gives up its
+     * ownership of the data, so its next modification copies it and the
+     * snapshot never changes.
+     */
+    public ByteBuffer getPageDataSnapshot() {
+        ownsData = false;
+        return data.asReadOnlyBuffer();
     }
 
     /**
@@ -257,7 +273,11 @@ public class HeapPage implements Page {
         if (!hpid.equals(pid) || !isSlotUsed(tupleNum)) {
             throw new DbException("this tuple is not on this page, or tuple slot is already empty");
         }
-        tuples[tupleNum]=null;
+        // empty slots are all zeroes on disk
+        ensureOwnData();
+        int offset = slotOffset(tupleNum);
+        for (int i=0; i<tupleSize; i++)
+            data.put(offset + i, (byte) 0);
         markSlotUsed(tupleNum, false);
     }
 
@@ -275,7 +295,10 @@ public class HeapPage implements Page {
     	int count = 0;
         while(count < getNumTuples()) {
             if (!isSlotUsed(count)) {
-                tuples[count] = t;
+                ensureOwnData();
+                int offset = slotOffset(count);
+                for (int j=0; j<td.numFields(); j++)
+                    t.getField(j).serialize(data, offset + fieldOffsets[j]);
                 t.setRecordId(new RecordId(pid, count));
                 markSlotUsed(count,true);
                 return;
@@ -308,6 +331,27 @@ public class HeapPage implements Page {
             return null;      
     }
 
+    /**
+     * Returns true if this page has at least one empty slot. Cheaper than
+     * getNumEmptySlots, since it looks at whole header bytes.
+     */
+    public boolean hasEmptySlot() {
+        return hasEmptySlot(data, numSlots);
+    }
+
+    /**
+     * Returns true if the header bitmap at the start of buf marks one of
+     * the first numSlots slots as empty.
+     */
+    static boolean hasEmptySlot(ByteBuffer buf, int numSlots) {
+        int fullBytes = numSlots / 8;
+        for (int i=0; i<fullBytes; i++)
+            if (buf.get(i) != (byte) 0xFF)
+                return true;
+        int mask = (1 << (numSlots % 8)) - 1;
+        return mask != 0 && (buf.get(fullBytes) & mask) != mask;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -325,7 +369,7 @@ public class HeapPage implements Page {
     public boolean isSlotUsed(int i) {
         int headerbit = i % 8;
         int headerbyte = (i - headerbit) / 8;
-        return (header[headerbyte] & (1 << headerbit)) != 0;
+        return (data.get(headerbyte) & (1 << headerbit)) != 0;
     }
 
     /**
@@ -336,7 +380,8 @@ public class HeapPage implements Page {
         // not necessary for lab1|lab2
         int byteNum = i / 8;
         int posInByte = i % 8;
-        header[byteNum] = editBitInByte(header[byteNum], posInByte, value);
+        ensureOwnData();
+        data.put(byteNum, editBitInByte(data.get(byteNum), posInByte, value));
     }
 
     private byte editBitInByte(byte targetByte, int byteIndex, boolean value) {
@@ -353,28 +398,67 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        return new HeapPageIterator(this);
+        return new HeapPageIterator(this, null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p.
+     * The predicate is evaluated against the page data, so tuples that
+     * fail it are never decoded.
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new HeapPageIterator(this, p);
+    }
+
+    /**
+     * Add the tuples on this page that satisfy p to batch, starting at
+     * slot from, until the batch is full or the page has no more tuples.
+     * Unlike iterator(), this makes no call per empty slot.
+     *
+     * @param from the first slot to read
+     * @param p the predicate the tuples must satisfy, or null for all of them
+     * @param batch the batch to add the tuples to
+     * @return the slot to continue from, or the number of slots on the page
+     *         once every slot has been read
+     */
+    int readTuples(int from, Predicate p, TupleBatch batch) {
+        int i = from;
+        while (i < numSlots && !batch.isFull()) {
+            int header = data.get(i >> 3);
+            if (header == 0) {
+                // skip the rest of an empty header byte
+                i = (i | 7) + 1;
+                continue;
+            }
+            if ((header & (1 << (i & 7))) != 0 && (p == null || matches(i, p)))
+                batch.add(readTuple(i));
+            i++;
+        }
+        return Math.min(i, numSlots);
     }
 
     // protected method used by the iterator to get the ith tuple
     // out of this page
     Tuple getTuple(int i) throws NoSuchElementException {
+        return getTuple(i, null);
+    }
 
-        if (i >= tuples.length)
-            throw new NoSuchElementException();
-
-        try {
-            if(!isSlotUsed(i)) {
-                Debug.log(1, "HeapPage.getTuple: slot %d in %d:%d is not used", i, pid.getTableId(), pid.pageNumber());
-                return null;
-            }
-
-            Debug.log(1, "HeapPage.getTuple: returning tuple %d", i);
-            return tuples[i];
+    // the ith tuple, or null if the slot is empty or the tuple does not
+    // satisfy p
+    Tuple getTuple(int i, Predicate p) throws NoSuchElementException {
 
-        } catch (ArrayIndexOutOfBoundsException e) {
+        if (i < 0 || i >= numSlots)
             throw new NoSuchElementException();
+
+        if(!isSlotUsed(i)) {
+            Debug.log(1, "HeapPage.getTuple: slot %d in %d:%d is not used", i, pid.getTableId(), pid.pageNumber());
+            return null;
         }
+        if (p != null && !matches(i, p))
+            return null;
+
+        Debug.log(1, "HeapPage.getTuple: returning tuple %d", i);
+        return readTuple(i);
     }
 }
 
@@ -385,9 +469,11 @@ class HeapPageIterator implements Iterator<Tuple> {
     int curTuple = 0;
     Tuple nextToReturn = null;
     HeapPage p;
+    Predicate predicate;
 
-    public HeapPageIterator(HeapPage p) {
+    public HeapPageIterator(HeapPage p, Predicate predicate) {
         this.p = p;
+        this.predicate = predicate;
     }
 
     public boolean hasNext() {
@@ -396,7 +482,7 @@ class HeapPageIterator implements Iterator<Tuple> {
 
         try {
             while (true) {
-                nextToReturn = p.getTuple(curTuple++);
+                nextToReturn = p.getTuple(curTuple++, predicate);
                 if(nextToReturn != null)
                     return true;
             }
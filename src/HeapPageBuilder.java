@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HeapPageBuilder packs tuples into consecutive HeapPage images in one
+ * buffer, in the format HeapPage reads, filling each page before starting
+ * the next. It is the in-memory half of a bulk load: the pages it builds
+ * are written out whole with HeapFile.appendPages. It needs no catalog
+ * entry, so pages can be built for a file that is not in the catalog yet.
+ * <p>
+ * Tuples are not given record ids.
+ */
+class HeapPageBuilder {
+
+    private final TupleDesc td;
+    private final int pageSize;
+    private final int numSlots;
+    private final int headerSize;
+    private final int tupleSize;
+    private final int[] fieldOffsets;
+    private final int maxPages;
+
+    private final ByteBuffer buf;
+    private int page = 0; // the page tuples are added to
+    private int slot = 0; // the next free slot on that page
+    private int count = 0;
+
+    /**
+     * @param td the schema of the tuples
+     * @param maxPages the number of pages the buffer holds
+     */
+    HeapPageBuilder(TupleDesc td, int maxPages) {
+        this.td = td;
+        this.pageSize = BufferPool.getPageSize();
+        this.numSlots = HeapPage.getNumTuples(td);
+        this.headerSize = (numSlots + 7) / 8;
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        this.maxPages = maxPages;
+        this.buf = ByteBuffer.allocate(maxPages * pageSize);
+    }
+
+    /** Returns the number of tuples that fit on one page. */
+    int getTuplesPerPage() {
+        return numSlots;
+    }
+
+    /**
+     * Add a tuple to the current page.
+     *
+     * @throws DbException if the tuple does not match the schema
+     * @throws IllegalStateException if every page is full
+     */
+    void add(Tuple t) throws DbException {
+        if (isFull())
+            throw new IllegalStateException("all " + maxPages + " pages are full");
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupleDesc is mismatch");
+
+        int base = page * pageSize;
+        int offset = base + headerSize + slot * tupleSize;
+        for (int j = 0; j < fieldOffsets.length; j++)
+            t.getField(j).serialize(buf, offset + fieldOffsets[j]);
+        int header = base + slot / 8;
+        buf.put(header, (byte) (buf.get(header) | (1 << (slot % 8))));
+        count++;
+
+        if (++slot == numSlots) {
+            slot = 0;
+            page++;
+        }
+    }
+
+    /** Returns true if no more tuples fit. */
+    boolean isFull() {
+        return page == maxPages;
+    }
+
+    /** Returns the number of pages holding at least one tuple. */
+    int numPages() {
+        return slot > 0 ? page + 1 : page;
+    }
+
+    /** Returns the number of tuples added since the last clear(). */
+    int numTuples() {
+        return count;
+    }
+
+    /**
+     * Returns the buffer the pages are built in. The first numPages()
+     * pages are valid; the buffer is reused after clear().
+     */
+    ByteBuffer data() {
+        return buf;
+    }
+
+    /** Empty every page, to build the next batch in the same buffer. */
+    void clear() {
+        Arrays.fill(buf.array(), 0, numPages() * pageSize, (byte) 0);
+        page = 0;
+        slot = 0;
+        count = 0;
+    }
+}
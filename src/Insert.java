@@ -48,14 +48,29 @@ public class Insert extends Operator {
         child.open();
         super.open();
 
-        while (child.hasNext()) {
-            Tuple next = child.next();
-            try {
-                Database.getBufferPool().insertTuple(tid, tableId, next);
-                count++;
-            } catch (IOException e) {
-                e.printStackTrace();
+        // a page's worth of tuples goes through the BufferPool, so small
+        // inserts fill free slots; a larger insert into a heap file is
+        // appended as new pages by a bulk load
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        int viaBufferPool = file instanceof HeapFile
+                ? HeapPage.getNumTuples(file.getTupleDesc()) : Integer.MAX_VALUE;
+        BulkLoader loader = null;
+        try {
+            while (child.hasNext()) {
+                Tuple next = child.next();
+                if (count < viaBufferPool) {
+                    Database.getBufferPool().insertTuple(tid, tableId, next);
+                    count++;
+                    continue;
+                }
+                if (loader == null)
+                    loader = new BulkLoader(tid, (HeapFile) file);
+                loader.add(next);
             }
+            if (loader != null)
+                count += loader.finish();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
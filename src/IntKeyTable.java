@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A KeyTable on int keys: an open-addressing hash table with linear
+ * probing, keeping the keys and their ids in flat int arrays.
+ */
+class IntKeyTable extends KeyTable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] slotKeys;
+    private int[] slotIds; // -1 for an empty slot
+    private int mask;
+    private int[] keys = new int[INITIAL_CAPACITY]; // by id
+    private int size = 0;
+
+    IntKeyTable() {
+        allocate(INITIAL_CAPACITY * 2);
+    }
+
+    private void allocate(int slots) {
+        slotKeys = new int[slots];
+        slotIds = new int[slots];
+        Arrays.fill(slotIds, -1);
+        mask = slots - 1;
+    }
+
+    /**
+     * Returns the id of key, or -1 if it is not in the table.
+     */
+    int find(int key) {
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            int id = slotIds[i];
+            if (id < 0 || slotKeys[i] == key)
+                return id;
+        }
+    }
+
+    /**
+     * Returns the id of key, giving it the next id if it is new.
+     */
+    int add(int key) {
+        int i = mix(key) & mask;
+        for (; slotIds[i] >= 0; i = (i + 1) & mask) {
+            if (slotKeys[i] == key)
+                return slotIds[i];
+        }
+        int id = size++;
+        slotKeys[i] = key;
+        slotIds[i] = id;
+        keys = grow(keys, size);
+        keys[id] = key;
+        // keep the table at most half full
+        if (size * 2 > slotIds.length)
+            rehash();
+        return id;
+    }
+
+    private void rehash() {
+        allocate(slotIds.length * 2);
+        for (int id = 0; id < size; id++) {
+            int i = mix(keys[id]) & mask;
+            while (slotIds[i] >= 0)
+                i = (i + 1) & mask;
+            slotKeys[i] = keys[id];
+            slotIds[i] = id;
+        }
+    }
+
+    /** Returns the key with the given id. */
+    int intKeyAt(int id) {
+        return keys[id];
+    }
+
+    int add(Field key) {
+        return add(((IntField) key).getValue());
+    }
+
+    int find(Field key) {
+        return find(((IntField) key).getValue());
+    }
+
+    Field keyAt(int id) {
+        return new IntField(keys[id]);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(slotIds, -1);
+        size = 0;
+    }
+}
@@ -13,18 +13,12 @@ public class IntegerAggregator implements Aggregator {
     private final int gbfield;
     private final Type gbfieldtype;
     private final int afield;
-    private static class aggregateFields {
-        public String groupVal;
-        public int min, max, sum, count, sumCount;
-
-        public aggregateFields(String groupVal) {
-            this.groupVal = groupVal;
-            min = Integer.MAX_VALUE;
-            max = Integer.MIN_VALUE;
-            sum = count = sumCount = 0;
-        }
-    }
-    private final HashMap<String, aggregateFields> groups;
+    // the group of each distinct group-by value, or null with no grouping,
+    // where every tuple is in group 0
+    private final KeyTable groups;
+    private int numGroups = 0;
+    // the aggregates of each group, by group id
+    private int[] min, max, sum, count, sumCount;
 
     /**
      * Aggregate constructor
@@ -47,7 +41,13 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.groups = new HashMap<>();
+        this.groups = gbfield == NO_GROUPING ? null : KeyTable.forType(gbfieldtype);
+        int n = KeyTable.INITIAL_CAPACITY;
+        min = new int[n];
+        max = new int[n];
+        sum = new int[n];
+        count = new int[n];
+        sumCount = new int[n];
     }
 
     /**
@@ -59,26 +59,30 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        String groupVal = "";
-        if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
-        }
-        aggregateFields aggregateField = groups.get(groupVal);
-
-        if (aggregateField == null) {
-            aggregateField = new aggregateFields(groupVal);
-        }
+        int g = groups == null ? 0 : groups.add(tup.getField(gbfield));
+        if (g == numGroups)
+            newGroup();
 
         int value = ((IntField) tup.getField(afield)).getValue();
-        aggregateField.count++;
-        aggregateField.sum += value;
-        aggregateField.min = (Math.min(value, aggregateField.min));
-        aggregateField.max = (Math.max(value, aggregateField.max));
+        count[g]++;
+        sum[g] += value;
+        min[g] = Math.min(value, min[g]);
+        max[g] = Math.max(value, max[g]);
         if (what == Op.SC_AVG) {
-            aggregateField.sumCount += ((IntField) tup.getField(afield + 1)).getValue();
+            sumCount[g] += ((IntField) tup.getField(afield + 1)).getValue();
         }
+    }
 
-        groups.put(groupVal, aggregateField);
+    private void newGroup() {
+        int g = numGroups++;
+        min = KeyTable.grow(min, numGroups);
+        max = KeyTable.grow(max, numGroups);
+        sum = KeyTable.grow(sum, numGroups);
+        count = KeyTable.grow(count, numGroups);
+        sumCount = KeyTable.grow(sumCount, numGroups);
+        min[g] = Integer.MAX_VALUE;
+        max[g] = Integer.MIN_VALUE;
+        sum[g] = count[g] = sumCount[g] = 0;
     }
 
     /**
@@ -113,41 +117,35 @@ public class IntegerAggregator implements Aggregator {
             }
         }
 
-        for (String groupVal : groups.keySet()) {
-            aggregateFields aggregateF = groups.get(groupVal);
+        for (int g = 0; g < numGroups; g++) {
             Tuple tup = new Tuple(td);
 
             if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE) {
-                    tup.setField(0, new IntField(Integer.parseInt(groupVal)));
-                }
-                else {
-                    tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
-                }
+                tup.setField(0, groups.keyAt(g));
             }
 
             switch (what) {
                 case MIN:
-                    tup.setField(aggregateField, new IntField(aggregateF.min));
+                    tup.setField(aggregateField, new IntField(min[g]));
                     break;
                 case MAX:
-                    tup.setField(aggregateField, new IntField(aggregateF.max));
+                    tup.setField(aggregateField, new IntField(max[g]));
                     break;
                 case SUM:
-                    tup.setField(aggregateField, new IntField(aggregateF.sum));
+                    tup.setField(aggregateField, new IntField(sum[g]));
                     break;
                 case COUNT:
-                    tup.setField(aggregateField, new IntField(aggregateF.count));
+                    tup.setField(aggregateField, new IntField(count[g]));
                     break;
                 case AVG:
-                    tup.setField(aggregateField, new IntField(aggregateF.sum / aggregateF.count));
+                    tup.setField(aggregateField, new IntField(sum[g] / count[g]));
                     break;
                 case SUM_COUNT:
-                    tup.setField(aggregateField, new IntField(aggregateF.sum));
-                    tup.setField(aggregateField+1, new IntField(aggregateF.count));
+                    tup.setField(aggregateField, new IntField(sum[g]));
+                    tup.setField(aggregateField+1, new IntField(count[g]));
                     break;
                 case SC_AVG:
-                    tup.setField(aggregateField, new IntField(aggregateF.sum / aggregateF.sumCount));
+                    tup.setField(aggregateField, new IntField(sum[g] / sumCount[g]));
                     break;
             }
 
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * JoinHashTable is the build side of a hash join: it maps each value of
+ * the join field to the tuples that have it. Keys are numbered by a
+ * KeyTable, and the tuples of a key form a chain through a flat array of
+ * row numbers, in the order they were added, so adding a tuple allocates
+ * nothing beyond the occasional array growth.
+ */
+class JoinHashTable {
+
+    private final KeyTable keys;
+    private int[] head = new int[KeyTable.INITIAL_CAPACITY]; // by key id
+    private int[] tail = new int[KeyTable.INITIAL_CAPACITY];
+    private Tuple[] rows = new Tuple[KeyTable.INITIAL_CAPACITY];
+    private int[] next = new int[KeyTable.INITIAL_CAPACITY]; // by row
+    private int numRows = 0;
+
+    /**
+     * @param keyType the type of the join field
+     */
+    JoinHashTable(Type keyType) {
+        this.keys = KeyTable.forType(keyType);
+    }
+
+    /** Add t under key. */
+    void add(Field key, Tuple t) {
+        int keysBefore = keys.size();
+        int id = keys.add(key);
+        int row = numRows++;
+        if (numRows > rows.length)
+            rows = Arrays.copyOf(rows, 2 * rows.length);
+        next = KeyTable.grow(next, numRows);
+        rows[row] = t;
+        next[row] = -1;
+        if (keys.size() > keysBefore) {
+            head = KeyTable.grow(head, id + 1);
+            tail = KeyTable.grow(tail, id + 1);
+            head[id] = row;
+        } else {
+            next[tail[id]] = row;
+        }
+        tail[id] = row;
+    }
+
+    /**
+     * Returns the first row with key, or -1 if there is none.
+     */
+    int first(Field key) {
+        int id = keys.find(key);
+        return id < 0 ? -1 : head[id];
+    }
+
+    /** Returns the row after row with the same key, or -1. */
+    int next(int row) {
+        return next[row];
+    }
+
+    /** Returns the tuple in row. */
+    Tuple get(int row) {
+        return rows[row];
+    }
+
+    /** Returns the number of tuples in the table. */
+    int size() {
+        return numRows;
+    }
+
+    /** Remove every tuple. */
+    void clear() {
+        keys.clear();
+        Arrays.fill(rows, 0, numRows, null);
+        numRows = 0;
+    }
+}
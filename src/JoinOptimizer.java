@@ -242,6 +242,9 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+        // a query over one table has no joins to order
+        if (joins.isEmpty())
+            return joins;
         PlanCache planCache = new PlanCache();
         Set<LogicalJoinNode> LJNS = null;
 
@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * KeyTable numbers the distinct values of one field: each new key gets the
+ * next group id, starting at 0, so per-key state can live in flat arrays
+ * indexed by id instead of in an object per key. IntKeyTable and
+ * StringKeyTable are open-addressing hash tables on the raw int or String
+ * value, so looking a key up allocates nothing.
+ */
+abstract class KeyTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Returns a table for keys of type t.
+     */
+    static KeyTable forType(Type t) {
+        return t == Type.INT_TYPE ? new IntKeyTable() : new StringKeyTable();
+    }
+
+    /**
+     * Returns the id of key, giving it the next id if it is new.
+     */
+    abstract int add(Field key);
+
+    /**
+     * Returns the id of key, or -1 if it is not in the table.
+     */
+    abstract int find(Field key);
+
+    /**
+     * Returns the key with the given id.
+     */
+    abstract Field keyAt(int id);
+
+    /** Returns the number of keys, which is also the next id. */
+    abstract int size();
+
+    /** Remove every key. */
+    abstract void clear();
+
+    /**
+     * Returns a copy of ids with room for at least n of them, for callers
+     * growing their per-key arrays along with the table.
+     */
+    static int[] grow(int[] ids, int n) {
+        if (n <= ids.length)
+            return ids;
+        return java.util.Arrays.copyOf(ids, Math.max(n, 2 * ids.length));
+    }
+
+    /** Spreads the bits of a hash code over the slot index. */
+    static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that returns at most the first n tuples of its
+ * child. It stops reading from the child once it has returned n tuples, so
+ * a pipelined child, such as a Filter over a SeqScan, does no more work
+ * than it takes to produce them.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int limit;
+    private int returned = 0;
+
+    /**
+     * @param limit
+     *            the most tuples to return
+     * @param child
+     *            The child operator
+     */
+    public Limit(int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /** @return the most tuples this operator returns */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the child's next tuple
+     * until limit tuples have been returned.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned == limit || !child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (this.child != children[0])
+            this.child = children[0];
+    }
+}
@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager implements page-level strict two-phase locking for the
+ * BufferPool. Each page has its own lock object holding either a set of
+ * shared holders or a single exclusive holder; a transaction that is the
+ * only shared holder of a page may upgrade its lock to exclusive.
+ * <p>
+ * Threads block on the monitor of the individual page lock, never on the
+ * BufferPool or on the LockManager as a whole, so readers of unrelated
+ * pages do not contend with each other or with a blocked writer.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** The lock state of a single page. Guarded by its own monitor. */
+    private static class PageLock {
+        final Set<TransactionId> sharers = new HashSet<TransactionId>();
+        TransactionId exclusive = null;
+        int waiters = 0;
+        // set once the lock has been dropped from the lock table; a thread
+        // that raced with the removal must look the lock up again
+        boolean retired = false;
+
+        boolean isFree() {
+            return exclusive == null && sharers.isEmpty();
+        }
+
+        boolean holds(TransactionId tid) {
+            return tid.equals(exclusive) || sharers.contains(tid);
+        }
+
+        boolean canGrant(TransactionId tid, boolean exclusiveMode) {
+            if (exclusive != null)
+                return exclusive.equals(tid);
+            if (!exclusiveMode)
+                return true;
+            // exclusive request: free, or we are the only sharer (upgrade)
+            return sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid));
+        }
+
+        Set<TransactionId> holdersExcept(TransactionId tid) {
+            Set<TransactionId> holders = new HashSet<TransactionId>(sharers);
+            if (exclusive != null)
+                holders.add(exclusive);
+            holders.remove(tid);
+            return holders;
+        }
+
+        void grant(TransactionId tid, boolean exclusiveMode) {
+            if (tid.equals(exclusive))
+                return;
+            if (exclusiveMode) {
+                sharers.remove(tid);
+                exclusive = tid;
+            } else {
+                sharers.add(tid);
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> lockedPages;
+    private final ConcurrentHashMap<TransactionId, PageLock> waitingOn;
+    private final WaitsForGraph graph;
+
+    public LockManager() {
+        locks = new ConcurrentHashMap<PageId, PageLock>();
+        lockedPages = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        waitingOn = new ConcurrentHashMap<TransactionId, PageLock>();
+        graph = new WaitsForGraph();
+    }
+
+    /**
+     * Acquire a lock on the specified page, blocking until it is granted.
+     * READ_ONLY requests a shared lock and READ_WRITE an exclusive one; a
+     * transaction that already holds a shared lock is upgraded in place.
+     * <p>
+     * Before blocking, the request is added to the waits-for graph. If that
+     * closes a cycle, the youngest transaction on it is aborted: either this
+     * call throws, or the victim's blocked request is woken up and throws.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm the requested permissions
+     * @throws TransactionAbortedException if tid was chosen as a deadlock
+     *         victim, or the thread is interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusiveMode = perm == Permissions.READ_WRITE;
+        try {
+            while (true) {
+                PageLock lock = locks.computeIfAbsent(pid, k -> new PageLock());
+                Set<TransactionId> holders;
+                synchronized (lock) {
+                    if (lock.retired)
+                        continue;
+                    checkNotVictim(tid);
+                    if (lock.canGrant(tid, exclusiveMode)) {
+                        lock.grant(tid, exclusiveMode);
+                        break;
+                    }
+                    holders = lock.holdersExcept(tid);
+                }
+
+                // run detection outside the page monitor: waking a victim
+                // means taking the monitor of the lock it is blocked on
+                TransactionId victim;
+                try {
+                    victim = graph.waitFor(tid, holders);
+                } catch (DeadlockException e) {
+                    throw new TransactionAbortedException();
+                }
+                if (victim != null) {
+                    PageLock victimLock = waitingOn.get(victim);
+                    if (victimLock != null) {
+                        synchronized (victimLock) {
+                            victimLock.notifyAll();
+                        }
+                    }
+                }
+
+                synchronized (lock) {
+                    if (lock.retired || lock.canGrant(tid, exclusiveMode))
+                        continue;
+                    if (!holders.equals(lock.holdersExcept(tid)))
+                        continue; // refresh our waits-for edges first
+                    // publish where we wait before the final victim check,
+                    // so an abort decided after it is sure to notify us
+                    waitingOn.put(tid, lock);
+                    try {
+                        checkNotVictim(tid);
+                        lock.waiters++;
+                        try {
+                            lock.wait();
+                        } finally {
+                            lock.waiters--;
+                        }
+                    } finally {
+                        waitingOn.remove(tid);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new TransactionAbortedException();
+        } finally {
+            graph.stopWaiting(tid);
+        }
+        lockedPages.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    private void checkNotVictim(TransactionId tid) throws TransactionAbortedException {
+        if (graph.isVictim(tid)) {
+            graph.victimAborted(tid);
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Release whatever lock the transaction holds on the specified page.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock != null) {
+            synchronized (lock) {
+                if (tid.equals(lock.exclusive))
+                    lock.exclusive = null;
+                lock.sharers.remove(tid);
+                if (lock.isFree() && lock.waiters == 0) {
+                    lock.retired = true;
+                    locks.remove(pid, lock);
+                } else {
+                    lock.notifyAll();
+                }
+            }
+        }
+        Set<PageId> held = lockedPages.get(tid);
+        if (held != null)
+            held.remove(pid);
+    }
+
+    /**
+     * Release every lock held by the specified transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        graph.remove(tid);
+        Set<PageId> held = lockedPages.remove(tid);
+        if (held == null)
+            return;
+        for (PageId pid : held)
+            release(tid, pid);
+    }
+
+    /** Return true if the transaction holds any lock on the specified page. */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return lock.holds(tid);
+        }
+    }
+
+    /** Return true if the transaction holds an exclusive lock on the page. */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return tid.equals(lock.exclusive);
+        }
+    }
+
+    /**
+     * Return the pages the specified transaction currently holds locks on.
+     * The returned set is a snapshot and is never null.
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> held = lockedPages.get(tid);
+        if (held == null)
+            return Collections.emptySet();
+        return new HashSet<PageId>(held);
+    }
+
+    /**
+     * Return the waits-for graph used for deadlock detection, which also
+     * carries the deadlock and abort-latency counters.
+     */
+    public WaitsForGraph getWaitsForGraph() {
+        return graph;
+    }
+}
@@ -2,7 +2,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.reflect.*;
 
 /**
@@ -18,7 +20,7 @@ Many of the methods here are synchronized (to prevent concurrent log
 writes from happening); many of the methods in BufferPool are also
 synchronized (for similar reasons.)  Problem is that BufferPool writes
 log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
+pages (on rollback and recovery.)  This can lead to deadlock.  For
 that reason, any LogFile operation that needs to access the BufferPool
 must not be declared synchronized and must begin with a block like:
 
@@ -61,11 +63,20 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> A serialized page starts with a one byte page type tag (see
+PAGE_TAG_HEAP and friends), followed by an integer count and the
+integers of the serialized PageId, and the page data preceded by its
+length. Pages of any other class are tagged PAGE_TAG_BY_NAME and carry
+their page and id class names, as UTF strings, right after the tag.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  It is followed by the dirty page table: an
+integer count of pages, and for each page its integer table id, integer
+page number and the long integer offset of the oldest UPDATE record of
+the page that may not have reached the disk yet.
 
 </ul>
 
@@ -74,7 +85,9 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private volatile RandomAccessFile raf; // reads; also owns the channel
+    private LogWriter writer; // appends //protected by this
+    private final ByteBuffer appendBuffer = ByteBuffer.allocateDirect(LogWriter.BUFFER_SIZE);
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,6 +97,14 @@ public class LogFile {
     static final int CHECKPOINT_RECORD = 5;
     static final long NO_CHECKPOINT_ID = -1;
 
+    // page type tags of serialized page images
+    static final byte PAGE_TAG_BY_NAME = 0;
+    static final byte PAGE_TAG_HEAP = 1;
+    static final byte PAGE_TAG_BTREE_ROOT_PTR = 2;
+    static final byte PAGE_TAG_BTREE_INTERNAL = 3;
+    static final byte PAGE_TAG_BTREE_LEAF = 4;
+    static final byte PAGE_TAG_BTREE_HEADER = 5;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
@@ -91,8 +112,43 @@ public class LogFile {
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
+    // sequence number of the last record appended; unlike file offsets it
+    // survives log truncation, so committers can wait on it
+    long lastLsn = 0; //protected by this
+
+    // held while the log is forced and while truncation swaps the file;
+    // never acquire the LogFile monitor while holding it
+    private final Object forceLock = new Object();
+    private GroupCommitter groupCommitter = null; //protected by this
+
+    private final AtomicLong commitCount = new AtomicLong(0);
+    private final AtomicLong forceCount = new AtomicLong(0);
+
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // log records examined by the last call to recover()
+    private long recoveryRecordsRead = 0; //protected by this
+
+    // dirty page table: pages whose logged updates may not be on disk yet
+    private final HashMap<PageId, DirtyPage> dirtyPages = new HashMap<PageId, DirtyPage>(); //protected by this
+    private BackgroundWriter backgroundWriter = null; //protected by this
+
+    private final AtomicLong checkpointCount = new AtomicLong(0);
+    private final AtomicLong lastCheckpointNanos = new AtomicLong(0);
+    private final AtomicLong lastCheckpointStallNanos = new AtomicLong(0);
+    private final AtomicLong maxCheckpointStallNanos = new AtomicLong(0);
+
+    /**
+     * An entry of the dirty page table. A page enters it when an UPDATE
+     * record for it is logged and leaves it once its file has been forced
+     * after the last such update was written.
+     */
+    private static class DirtyPage {
+        long recOffset;  // first UPDATE record of the page not known to be durable
+        long lastLsn;    // lsn of the last UPDATE record of the page
+        long writtenLsn; // lsn of the last UPDATE whose page write completed
+    }
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -107,6 +163,7 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        writer = new LogWriter(raf.getChannel(), raf.length(), appendBuffer);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -125,13 +182,13 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        lastLsn++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
             raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            writer = new LogWriter(raf.getChannel(), 0, appendBuffer);
+            writer.writeLong(NO_CHECKPOINT_ID);
+            currentOffset = writer.offset();
         }
     }
 
@@ -158,10 +215,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                writer.writeInt(ABORT_RECORD);
+                writer.writeLong(tid.getId());
+                writer.writeLong(currentOffset);
+                currentOffset = writer.offset();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -170,20 +227,49 @@ public class LogFile {
 
     /** Write a commit record to disk for the specified tid,
         and force the log to disk.
+        In group commit mode the caller instead waits, without holding
+        the log, until the flusher thread has forced a batch that
+        includes its commit record.
 
         @param tid The committing transaction.
+        @see #enableGroupCommit
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            writer.writeInt(COMMIT_RECORD);
+            writer.writeLong(tid.getId());
+            writer.writeLong(currentOffset);
+            currentOffset = writer.offset();
+            tidToFirstLogRecord.remove(tid.getId());
+            commitCount.incrementAndGet();
+            lsn = lastLsn;
+        }
+        awaitDurable(lsn);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Wait until every record up to sequence number lsn is on disk.
+     * Without group commit this forces the log; in group commit mode the
+     * caller waits, without holding the log, for the flusher to force a
+     * batch that includes lsn.
+     */
+    void awaitDurable(long lsn) throws IOException {
+        GroupCommitter committer;
+        synchronized (this) {
+            committer = groupCommitter;
+            if (committer == null) {
+                force();
+                return;
+            }
+            // hand the records to the OS now; the flusher only has to fsync
+            writer.flush();
+        }
+        committer.awaitDurable(lsn);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -197,8 +283,8 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        Debug.log("WRITE, offset = " + currentOffset);
         /* update record conists of
 
            record type
@@ -207,46 +293,185 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writer.writeInt(UPDATE_RECORD);
+        writer.writeLong(tid.getId());
+
+        writePageData(writer,before);
+        writePageData(writer,after);
+        writer.writeLong(currentOffset);
+
+        DirtyPage d = dirtyPages.get(after.getId());
+        if (d == null) {
+            d = new DirtyPage();
+            d.recOffset = currentOffset;
+            dirtyPages.put(after.getId(), d);
+        }
+        d.lastLsn = lastLsn;
+        currentOffset = writer.offset();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    /**
+     * Note that the given pages, whose UPDATE records were just logged,
+     * have been written to their files. They stay in the dirty page table
+     * until the files are forced.
+     */
+    synchronized void pagesWritten(List<Page> pages) {
+        for (Page p : pages) {
+            DirtyPage d = dirtyPages.get(p.getId());
+            if (d != null)
+                d.writtenLsn = d.lastLsn;
+        }
+    }
+
+    /**
+     * Force the files of pages that have been written since they were
+     * logged and drop those pages from the dirty page table. The files
+     * are forced without holding the LogFile monitor.
+     *
+     * @param maxTables the most files to force in this call
+     */
+    public void syncDataFiles(int maxTables) throws IOException {
+        Map<Integer, Map<PageId, Long>> byTable = new HashMap<Integer, Map<PageId, Long>>();
+        synchronized (this) {
+            for (Map.Entry<PageId, DirtyPage> e : dirtyPages.entrySet()) {
+                DirtyPage d = e.getValue();
+                if (d.writtenLsn != d.lastLsn)
+                    continue;
+                int table = e.getKey().getTableId();
+                if (byTable.size() >= maxTables && !byTable.containsKey(table))
+                    continue;
+                byTable.computeIfAbsent(table, k -> new HashMap<PageId, Long>())
+                    .put(e.getKey(), d.lastLsn);
+            }
+        }
+        for (Map.Entry<Integer, Map<PageId, Long>> e : byTable.entrySet()) {
+            try {
+                Database.getCatalog().getDatabaseFile(e.getKey()).sync();
+            } catch (NoSuchElementException dropped) {
+                // the table is gone, and so is any need to force it
+            }
+            synchronized (this) {
+                for (Map.Entry<PageId, Long> synced : e.getValue().entrySet()) {
+                    DirtyPage d = dirtyPages.get(synced.getKey());
+                    // a page logged again meanwhile stays
+                    if (d != null && d.lastLsn == synced.getValue())
+                        dirtyPages.remove(synced.getKey());
+                }
+            }
+        }
+    }
+
+    /** Return the number of pages in the dirty page table. */
+    public synchronized int getDirtyPageCount() {
+        return dirtyPages.size();
+    }
+
+    static byte pageTag(Page p) {
+        if (p instanceof HeapPage)
+            return PAGE_TAG_HEAP;
+        if (p instanceof BTreeRootPtrPage)
+            return PAGE_TAG_BTREE_ROOT_PTR;
+        if (p instanceof BTreeInternalPage)
+            return PAGE_TAG_BTREE_INTERNAL;
+        if (p instanceof BTreeLeafPage)
+            return PAGE_TAG_BTREE_LEAF;
+        if (p instanceof BTreeHeaderPage)
+            return PAGE_TAG_BTREE_HEADER;
+        return PAGE_TAG_BY_NAME;
+    }
+
+    void writePageData(LogWriter out, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
         //page data is:
-        // page class name
-        // id class name
+        // page type tag
+        // (page class name, id class name -- only for PAGE_TAG_BY_NAME)
         // id class bytes
         // id class data
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        byte tag = pageTag(p);
+        out.writeByte(tag);
+        if (tag == PAGE_TAG_BY_NAME) {
+            writeUTF(out, p.getClass().getName());
+            writeUTF(out, pid.getClass().getName());
+        }
 
-        raf.writeInt(pageInfo.length);
+        out.writeInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+            out.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        ByteBuffer pageData = p.getPageDataSnapshot();
+        out.writeInt(pageData.remaining());
+        out.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
+    /** Write s in the format RandomAccessFile.readUTF expects. */
+    private static void writeUTF(LogWriter out, String s) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new DataOutputStream(baos).writeUTF(s);
+        out.write(baos.toByteArray());
+    }
+
+    /** Copy one serialized page from raf to out without parsing it. */
+    void copyPageData(RandomAccessFile raf, LogWriter out) throws IOException {
+        byte tag = raf.readByte();
+        out.writeByte(tag);
+        if (tag == PAGE_TAG_BY_NAME) {
+            writeUTF(out, raf.readUTF());
+            writeUTF(out, raf.readUTF());
+        }
+        int numIdArgs = raf.readInt();
+        out.writeInt(numIdArgs);
+        for (int i = 0; i < numIdArgs; i++)
+            out.writeInt(raf.readInt());
+        byte[] pageData = new byte[raf.readInt()];
+        raf.readFully(pageData);
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
+
     Page readPageData(RandomAccessFile raf) throws IOException {
+        byte tag = raf.readByte();
+        if (tag == PAGE_TAG_BY_NAME)
+            return readPageDataByName(raf);
+
+        int numIdArgs = raf.readInt();
+        int idArgs[] = new int[numIdArgs];
+        for (int i = 0; i < numIdArgs; i++)
+            idArgs[i] = raf.readInt();
+        byte[] pageData = new byte[raf.readInt()];
+        raf.readFully(pageData);
+
+        if (tag == PAGE_TAG_HEAP)
+            return new HeapPage(new HeapPageId(idArgs[0], idArgs[1]), pageData);
+
+        BTreePageId bpid = new BTreePageId(idArgs[0], idArgs[1], idArgs[2]);
+        switch (tag) {
+        case PAGE_TAG_BTREE_ROOT_PTR:
+            return new BTreeRootPtrPage(bpid, pageData);
+        case PAGE_TAG_BTREE_HEADER:
+            return new BTreeHeaderPage(bpid, pageData);
+        case PAGE_TAG_BTREE_INTERNAL:
+            return new BTreeInternalPage(bpid, pageData, btreeKeyField(bpid));
+        case PAGE_TAG_BTREE_LEAF:
+            return new BTreeLeafPage(bpid, pageData, btreeKeyField(bpid));
+        default:
+            throw new IOException("unknown page type tag " + tag + " in log");
+        }
+    }
+
+    private static int btreeKeyField(BTreePageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+
+    /** Read a page logged with its class names, by reflection. */
+    private Page readPageDataByName(RandomAccessFile raf) throws IOException {
         PageId pid;
         Page newPage = null;
 
@@ -261,7 +486,7 @@ public class LogFile {
             int numIdArgs = raf.readInt();
             Object idArgs[] = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
+                idArgs[i] = Integer.valueOf(raf.readInt());
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
@@ -269,7 +494,7 @@ public class LogFile {
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
@@ -307,60 +532,112 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        writer.writeInt(BEGIN_RECORD);
+        writer.writeLong(tid.getId());
+        writer.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = writer.offset();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+
+        The checkpoint is fuzzy: it does not flush the BufferPool, whose
+        dirty pages all belong to running transactions under NO STEAL, and
+        does not take the BufferPool monitor.  It records the running
+        transactions and the dirty page table, which tells recovery where
+        to start redoing.  Readers and writers are only held up while the
+        record is appended and the log truncated.  If no background writer
+        is running, written pages are forced first, outside any monitor,
+        so that the log can still be truncated.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        long start = System.nanoTime();
+        BackgroundWriter bw;
+        synchronized (this) {
+            bw = backgroundWriter;
+        }
+        if (bw == null)
+            syncDataFiles(Integer.MAX_VALUE);
+        long stall;
+        synchronized (this) {
+            long locked = System.nanoTime();
+            //Debug.log("CHECKPOINT, offset = " + writer.offset());
+            preAppend();
+            long startCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            startCpOffset = writer.offset();
+            writer.writeInt(CHECKPOINT_RECORD);
+            writer.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            writer.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                writer.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                writer.writeLong(tidToFirstLogRecord.get(key));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            writer.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId, DirtyPage> e : dirtyPages.entrySet()) {
+                writer.writeInt(e.getKey().getTableId());
+                writer.writeInt(e.getKey().pageNumber());
+                writer.writeLong(e.getValue().recOffset);
             }
+
+            writer.writeLong(currentOffset);
+            currentOffset = writer.offset();
+            force();
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated; the record goes out
+            // first, so the pointer never refers to a torn checkpoint
+            writer.writeLongAt(0, startCpOffset);
+            force();
+            //Debug.log("CP OFFSET = " + currentOffset);
+
+            logTruncate();
+            stall = System.nanoTime() - locked;
         }
+        lastCheckpointNanos.set(System.nanoTime() - start);
+        lastCheckpointStallNanos.set(stall);
+        maxCheckpointStallNanos.accumulateAndGet(stall, Math::max);
+        checkpointCount.incrementAndGet();
+    }
+
+    /** Number of checkpoints taken. */
+    public long getCheckpointCount() {
+        return checkpointCount.get();
+    }
 
-        logTruncate();
+    /** Wall clock time of the last checkpoint, including forcing data files. */
+    public long getLastCheckpointNanos() {
+        return lastCheckpointNanos.get();
+    }
+
+    /**
+     * Time the last checkpoint held the LogFile monitor, during which no
+     * transaction could log, commit or abort.
+     */
+    public long getLastCheckpointStallNanos() {
+        return lastCheckpointStallNanos.get();
+    }
+
+    /** Longest stall caused by any checkpoint so far. */
+    public long getMaxCheckpointStallNanos() {
+        return maxCheckpointStallNanos.get();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        writer.flush();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -386,13 +663,25 @@ public class LogFile {
                     minLogRecord = firstLogRecord;
                 }
             }
+
+            // redo starts at the oldest update not known to be durable
+            int numDirty = raf.readInt();
+            for (int i = 0; i < numDirty; i++) {
+                raf.readInt();
+                raf.readInt();
+                long recOffset = raf.readLong();
+                if (recOffset < minLogRecord) {
+                    minLogRecord = recOffset;
+                }
+            }
         }
 
         // we can truncate everything before minLogRecord
         File newFile = new File("logtmp" + System.currentTimeMillis());
         RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        // the append buffer is empty after the flush above, so borrow it
+        LogWriter newWriter = new LogWriter(logNew.getChannel(), 0, appendBuffer);
+        newWriter.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
 
         raf.seek(minLogRecord);
 
@@ -401,38 +690,46 @@ public class LogFile {
             try {
                 int type = raf.readInt();
                 long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+                long newStart = newWriter.offset();
 
                 Debug.log("NEW START = " + newStart);
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+                newWriter.writeInt(type);
+                newWriter.writeLong(record_tid);
 
                 switch (type) {
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+                    // page images are copied verbatim, without parsing
+                    copyPageData(raf, newWriter);
+                    copyPageData(raf, newWriter);
                     break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
+                    newWriter.writeInt(numXactions);
                     while (numXactions-- > 0) {
                         long xid = raf.readLong();
                         long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                        newWriter.writeLong(xid);
+                        newWriter.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                    }
+                    int numDirty = raf.readInt();
+                    newWriter.writeInt(numDirty);
+                    while (numDirty-- > 0) {
+                        newWriter.writeInt(raf.readInt());
+                        newWriter.writeInt(raf.readInt());
+                        newWriter.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
                     }
                     break;
                 case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
+                    // only transactions still running; the copy may start
+                    // before the begin records of finished ones
+                    if (tidToFirstLogRecord.containsKey(record_tid))
+                        tidToFirstLogRecord.put(record_tid,newStart);
                     break;
                 }
 
                 //all xactions finish with a pointer
-                logNew.writeLong(newStart);
+                newWriter.writeLong(newStart);
                 raf.readLong();
 
             } catch (EOFException e) {
@@ -442,14 +739,22 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        newWriter.flush();
+        logNew.close();
 
-        currentOffset = raf.getFilePointer();
+        synchronized (forceLock) {
+            raf.close();
+            logFile.delete();
+            newFile.renameTo(logFile);
+            raf = new RandomAccessFile(logFile, "rw");
+            raf.seek(raf.length());
+            newFile.delete();
+        }
+        writer = new LogWriter(raf.getChannel(), raf.length(), appendBuffer);
+        for (DirtyPage d : dirtyPages.values())
+            d.recOffset = (d.recOffset - minLogRecord) + LONG_SIZE;
+
+        currentOffset = writer.offset();
         //print();
     }
 
@@ -467,6 +772,11 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+                writer.flush();
+                undo(Collections.singleton(tid.getId()), firstRecord, writer.offset());
             }
         }
     }
@@ -475,10 +785,14 @@ public class LogFile {
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            disableBackgroundWriter();
+            disableGroupCommit();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -494,17 +808,546 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                recoveryRecordsRead = 0;
+                tidToFirstLogRecord.clear();
+                dirtyPages.clear();
+                writer.flush();
+                if (raf.length() < LONG_SIZE) {
+                    // not even a checkpoint pointer: start a fresh log
+                    resetWriter(0);
+                    writer.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = writer.offset();
+                    force();
+                    return;
+                }
+
+                // analysis: start from the last checkpoint, whose record
+                // lists the transactions active when it was taken and
+                // the oldest update that may not have reached the disk
+                Map<Long, Long> active = new HashMap<Long, Long>();
+                Set<Long> committed = new HashSet<Long>();
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                long scanStart = LONG_SIZE;
+                long cpEnd = LONG_SIZE;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    raf.seek(cpLoc);
+                    if (raf.readInt() != CHECKPOINT_RECORD)
+                        throw new IOException("Checkpoint pointer does not point to checkpoint record");
+                    raf.readLong();
+                    int numOutstanding = raf.readInt();
+                    for (int i = 0; i < numOutstanding; i++) {
+                        long tid = raf.readLong();
+                        active.put(tid, raf.readLong());
+                    }
+                    long redoStart = Long.MAX_VALUE;
+                    int numDirty = raf.readInt();
+                    for (int i = 0; i < numDirty; i++) {
+                        raf.readInt();
+                        raf.readInt();
+                        redoStart = Math.min(redoStart, raf.readLong());
+                    }
+                    raf.readLong();
+                    cpEnd = raf.getFilePointer();
+                    scanStart = Math.min(redoStart, cpEnd);
+                    recoveryRecordsRead++;
+                }
+
+                // everything from the redo start on; before the checkpoint
+                // only commits matter, since its record says who was
+                // running. A record cut short by the crash ends the log
+                long validEnd = scanStart;
+                while (true) {
+                    raf.seek(validEnd);
+                    int type;
+                    long tid;
+                    long end;
+                    try {
+                        type = raf.readInt();
+                        tid = raf.readLong();
+                        end = skipRecordBody(validEnd, type);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (end < 0)
+                        break;
+                    recoveryRecordsRead++;
+                    switch (type) {
+                    case BEGIN_RECORD:
+                        if (validEnd >= cpEnd)
+                            active.put(tid, validEnd);
+                        break;
+                    case COMMIT_RECORD:
+                        active.remove(tid);
+                        committed.add(tid);
+                        break;
+                    case ABORT_RECORD:
+                        // rollback finished before the abort record was written
+                        if (validEnd >= cpEnd)
+                            active.remove(tid);
+                        break;
+                    }
+                    validEnd = end;
+                }
+                if (validEnd < raf.length())
+                    raf.setLength(validEnd);
+                resetWriter(validEnd);
+                currentOffset = validEnd;
+
+                // redo: reinstall the after images of committed
+                // transactions in log order; pages logged before the redo
+                // start were forced before the checkpoint
+                Set<Integer> redone = new HashSet<Integer>();
+                long off = scanStart;
+                while (off < validEnd) {
+                    raf.seek(off);
+                    int type = raf.readInt();
+                    long tid = raf.readLong();
+                    recoveryRecordsRead++;
+                    if (type == UPDATE_RECORD && committed.contains(tid)) {
+                        skipPageData(raf);
+                        installPage(readPageData(raf), redone);
+                        off = raf.getFilePointer() + LONG_SIZE;
+                    } else {
+                        off = skipRecordBody(off, type);
+                    }
+                }
+
+                syncTables(redone);
+
+                // undo: roll back every transaction that never finished
+                // and log that it aborted
+                if (!active.isEmpty()) {
+                    undo(active.keySet(), Collections.min(active.values()), validEnd);
+                    for (Long tid : active.keySet()) {
+                        writer.writeInt(ABORT_RECORD);
+                        writer.writeLong(tid);
+                        writer.writeLong(currentOffset);
+                        currentOffset = writer.offset();
+                    }
+                }
+                force();
             }
          }
     }
 
+    /**
+     * Return the number of log records read by the last call to recover(),
+     * counting every pass over a record. It grows with the amount of log
+     * written since the last checkpoint, not with the age of the log.
+     */
+    public synchronized long getRecoveryRecordsRead() {
+        return recoveryRecordsRead;
+    }
+
+    /**
+     * Restore the before images of the pages the given transactions
+     * updated. The log is walked backwards from end through the record
+     * back pointers, and only the header of a record that does not belong
+     * to one of the transactions is read. The oldest before image of each
+     * page wins, since it is the version the transactions started from.
+     *
+     * @param tids the transactions to roll back
+     * @param stopAt offset of the first record of the earliest of them
+     * @param end offset just past the last record to consider
+     */
+    private void undo(Set<Long> tids, long stopAt, long end) throws IOException {
+        Map<PageId, Page> beforeImages = new HashMap<PageId, Page>();
+        long off = end;
+        while (off > stopAt) {
+            raf.seek(off - LONG_SIZE);
+            long start = raf.readLong();
+            raf.seek(start);
+            int type = raf.readInt();
+            long tid = raf.readLong();
+            recoveryRecordsRead++;
+            if (type == UPDATE_RECORD && tids.contains(tid)) {
+                Page before = readPageData(raf);
+                beforeImages.put(before.getId(), before);
+            }
+            off = start;
+        }
+        Set<Integer> tables = new HashSet<Integer>();
+        for (Page p : beforeImages.values())
+            installPage(p, tables);
+        // there are no records of the undo, so it must be durable before
+        // the abort record is
+        syncTables(tables);
+    }
+
+    /**
+     * Write p to its file and drop any cached copy of it. The table is
+     * added to tables, whose files the caller forces afterwards.
+     */
+    private void installPage(Page p, Set<Integer> tables) throws IOException {
+        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+        Database.getBufferPool().discardPage(p.getId());
+        tables.add(p.getId().getTableId());
+    }
+
+    private static void syncTables(Set<Integer> tables) throws IOException {
+        for (int table : tables)
+            Database.getCatalog().getDatabaseFile(table).sync();
+    }
+
+    /** Start appending at offset, which must be the end of the log. */
+    private void resetWriter(long offset) {
+        writer = new LogWriter(raf.getChannel(), offset, appendBuffer);
+    }
+
+    /**
+     * Skip the rest of the record of the given type that starts at start;
+     * raf must be positioned just past its type and transaction id.
+     *
+     * @return the offset just past the record, or -1 if its back pointer
+     *         does not match start
+     * @throws EOFException if the record is cut short by the end of the log
+     */
+    private long skipRecordBody(long start, int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            skipPageData(raf);
+            skipPageData(raf);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = raf.readInt();
+            raf.seek(raf.getFilePointer() + numXactions * 2L * LONG_SIZE);
+            int numDirty = raf.readInt();
+            raf.seek(raf.getFilePointer() + numDirty * (2L * INT_SIZE + LONG_SIZE));
+            break;
+        case BEGIN_RECORD:
+        case COMMIT_RECORD:
+        case ABORT_RECORD:
+            break;
+        default:
+            return -1;
+        }
+        if (raf.readLong() != start)
+            return -1;
+        return raf.getFilePointer();
+    }
+
+    /** Skip a serialized page without building it. */
+    private void skipPageData(RandomAccessFile raf) throws IOException {
+        if (raf.readByte() == PAGE_TAG_BY_NAME) {
+            raf.readUTF();
+            raf.readUTF();
+        }
+        int numIdArgs = raf.readInt();
+        raf.seek(raf.getFilePointer() + numIdArgs * INT_SIZE);
+        int dataLen = raf.readInt();
+        raf.seek(raf.getFilePointer() + dataLen);
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
+        synchronized (this) {
+            writer.flush();
+            raf.seek(0);
+            System.out.println("0: CHECKPOINT POINTER " + raf.readLong());
+            long off = LONG_SIZE;
+            while (off < raf.length()) {
+                raf.seek(off);
+                int type = raf.readInt();
+                long tid = raf.readLong();
+                StringBuilder line = new StringBuilder();
+                line.append(off).append(": ");
+                switch (type) {
+                case ABORT_RECORD:
+                    line.append("ABORT");
+                    break;
+                case COMMIT_RECORD:
+                    line.append("COMMIT");
+                    break;
+                case BEGIN_RECORD:
+                    line.append("BEGIN");
+                    break;
+                case UPDATE_RECORD:
+                    Page before = readPageData(raf);
+                    readPageData(raf);
+                    line.append("UPDATE table ").append(before.getId().getTableId())
+                        .append(" page ").append(before.getId().pageNumber());
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = raf.readInt();
+                    line.append("CHECKPOINT active:");
+                    while (numXactions-- > 0) {
+                        long xid = raf.readLong();
+                        line.append(" ").append(xid).append("@").append(raf.readLong());
+                    }
+                    int numDirty = raf.readInt();
+                    line.append(" dirty:");
+                    while (numDirty-- > 0) {
+                        int table = raf.readInt();
+                        int page = raf.readInt();
+                        line.append(" ").append(table).append("/").append(page)
+                            .append("@").append(raf.readLong());
+                    }
+                    break;
+                default:
+                    line.append("UNKNOWN RECORD TYPE ").append(type);
+                    System.out.println(line);
+                    return;
+                }
+                line.append(" tid=").append(tid);
+                System.out.println(line);
+                off = raf.getFilePointer() + LONG_SIZE;
+            }
+        }
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        writer.flush();
+        syncToDisk();
+    }
+
+    /** fsync the log. Safe to call without the LogFile monitor. */
+    private void syncToDisk() throws IOException {
+        synchronized (forceLock) {
+            raf.getChannel().force(true);
+        }
+        forceCount.incrementAndGet();
+    }
+
+    /** Return the sequence number of the last record appended. */
+    synchronized long getLastLsn() {
+        return lastLsn;
+    }
+
+    /**
+     * Switch to group commit. Committing transactions no longer force
+     * the log themselves; a background thread forces it once for every
+     * batch of commits, as soon as batchSize commits are waiting or the
+     * oldest waiting commit has waited maxDelayMillis.
+     *
+     * @param maxDelayMillis the longest a commit waits for others to join its batch
+     * @param batchSize the number of waiting commits that triggers an immediate force
+     */
+    public synchronized void enableGroupCommit(long maxDelayMillis, int batchSize) {
+        disableGroupCommit();
+        groupCommitter = new GroupCommitter(maxDelayMillis, batchSize);
+        groupCommitter.start();
+    }
+
+    /**
+     * Go back to forcing the log on every commit. Commits already waiting
+     * are flushed first.
+     */
+    public synchronized void disableGroupCommit() {
+        if (groupCommitter != null) {
+            groupCommitter.shutdown();
+            groupCommitter = null;
+        }
+    }
+
+    /**
+     * Start a background writer that forces the files of written pages
+     * every intervalMillis, at most tablesPerRound files at a time, so
+     * that the dirty page table, and with it the log kept for redo, stays
+     * short without checkpoints having to force anything.
+     *
+     * @param intervalMillis the pause between two rounds
+     * @param tablesPerRound the most files forced in one round
+     */
+    public void enableBackgroundWriter(long intervalMillis, int tablesPerRound) {
+        disableBackgroundWriter();
+        BackgroundWriter bw = new BackgroundWriter(intervalMillis, tablesPerRound);
+        synchronized (this) {
+            backgroundWriter = bw;
+        }
+        bw.start();
+    }
+
+    /** Stop the background writer, if one is running. */
+    public void disableBackgroundWriter() {
+        // the writer takes this monitor, so join it without holding it
+        BackgroundWriter bw;
+        synchronized (this) {
+            bw = backgroundWriter;
+            backgroundWriter = null;
+        }
+        if (bw != null)
+            bw.shutdown();
+    }
+
+    /** Number of commit records written. */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /** Number of times the log has been forced to disk. */
+    public long getForceCount() {
+        return forceCount.get();
+    }
+
+    /** Average number of commits made durable by one fsync of the log. */
+    public double getCommitsPerForce() {
+        long forces = forceCount.get();
+        return forces == 0 ? 0 : (double) commitCount.get() / forces;
+    }
+
+    /**
+     * The background writer thread: forces the files of pages in the
+     * dirty page table a few tables at a time.
+     */
+    private class BackgroundWriter implements Runnable {
+        private final long intervalMillis;
+        private final int tablesPerRound;
+        private final Thread thread;
+        // guarded by this object's monitor; the thread is never interrupted,
+        // since an interrupt during a force would close the table's channel
+        private boolean stopped = false;
+
+        BackgroundWriter(long intervalMillis, int tablesPerRound) {
+            this.intervalMillis = intervalMillis;
+            this.tablesPerRound = Math.max(1, tablesPerRound);
+            this.thread = new Thread(this, "LogFile background writer");
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void shutdown() {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    long deadline = System.currentTimeMillis() + intervalMillis;
+                    if (deadline < 0)
+                        deadline = Long.MAX_VALUE;
+                    long now;
+                    while (!stopped && (now = System.currentTimeMillis()) < deadline) {
+                        try {
+                            wait(deadline - now);
+                        } catch (InterruptedException e) {
+                            // only shutdown() ends the thread
+                        }
+                    }
+                    if (stopped)
+                        return;
+                }
+                try {
+                    syncDataFiles(tablesPerRound);
+                } catch (IOException e) {
+                    // the pages stay in the table; try again next round
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * The group commit flusher thread. Committers register the LSN of
+     * their commit record and sleep; the flusher collects them into a
+     * batch, forces the log once outside the LogFile monitor, and wakes
+     * everyone whose record is now durable.
+     */
+    private class GroupCommitter implements Runnable {
+        private final long maxDelayNanos;
+        private final int batchSize;
+        private final Thread thread;
+
+        // all guarded by this thread object's monitor
+        private int waiting = 0;
+        private long requestedLsn = 0;
+        private long durableLsn = 0;
+        private long oldestWaitStart = 0;
+        private boolean stopped = false;
+        private IOException failure = null;
+
+        GroupCommitter(long maxDelayMillis, int batchSize) {
+            this.maxDelayNanos = maxDelayMillis * 1000000L;
+            this.batchSize = Math.max(1, batchSize);
+            this.thread = new Thread(this, "LogFile group commit");
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        synchronized void awaitDurable(long lsn) throws IOException {
+            if (waiting == 0)
+                oldestWaitStart = System.nanoTime();
+            waiting++;
+            requestedLsn = Math.max(requestedLsn, lsn);
+            notifyAll();
+            try {
+                while (durableLsn < lsn && failure == null)
+                    wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted waiting for group commit");
+            }
+            if (durableLsn < lsn)
+                throw failure;
+        }
+
+        /** Stop the flusher after it has forced any batch still waiting. */
+        void shutdown() {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void run() {
+            while (true) {
+                long target;
+                synchronized (this) {
+                    try {
+                        while (waiting == 0 && !stopped)
+                            wait();
+                        while (waiting > 0 && waiting < batchSize && !stopped) {
+                            long left = oldestWaitStart + maxDelayNanos - System.nanoTime();
+                            if (left <= 0)
+                                break;
+                            wait(left / 1000000L, (int) (left % 1000000L));
+                        }
+                    } catch (InterruptedException e) {
+                        stopped = true;
+                    }
+                    if (waiting == 0 && stopped)
+                        return;
+                    target = requestedLsn;
+                    waiting = 0;
+                }
+                // every record up to target was appended before its
+                // committer registered, so one force covers the batch
+                IOException error = null;
+                try {
+                    syncToDisk();
+                } catch (IOException e) {
+                    error = e;
+                }
+                synchronized (this) {
+                    if (error == null)
+                        durableLsn = Math.max(durableLsn, target);
+                    else
+                        failure = error;
+                    notifyAll();
+                    if (error != null)
+                        return;
+                }
+            }
+        }
     }
 
 }
@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * LogWriter appends log records to the end of the log file through a
+ * reusable direct ByteBuffer. Fields are serialized into the buffer and
+ * the buffer is written to the FileChannel only when it fills up or when
+ * the log is flushed, so an UPDATE record costs one or two system calls
+ * instead of one per field.
+ * <p>
+ * Writes are positional, so they never move the file pointer of the
+ * RandomAccessFile that LogFile uses to read the log back.
+ * <p>
+ * Not thread safe: LogFile only uses it while holding its own monitor.
+ */
+class LogWriter {
+
+    /** Size of the append buffer; large enough for an UPDATE record of two 4 KB pages. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel ch;
+    private final ByteBuffer buf;
+    private long flushedOffset; // file offset of the first byte in buf
+
+    /**
+     * @param ch the channel of the log file
+     * @param offset the file offset at which appending starts
+     * @param buf the buffer to serialize into; it is cleared first
+     */
+    LogWriter(FileChannel ch, long offset, ByteBuffer buf) {
+        this.ch = ch;
+        this.flushedOffset = offset;
+        this.buf = buf;
+        buf.clear();
+    }
+
+    /** Return the file offset the next appended byte will have. */
+    long offset() {
+        return flushedOffset + buf.position();
+    }
+
+    void writeByte(int v) throws IOException {
+        ensure(1);
+        buf.put((byte) v);
+    }
+
+    void writeInt(int v) throws IOException {
+        ensure(LogFile.INT_SIZE);
+        buf.putInt(v);
+    }
+
+    void writeLong(long v) throws IOException {
+        ensure(LogFile.LONG_SIZE);
+        buf.putLong(v);
+    }
+
+    void write(byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            if (!buf.hasRemaining())
+                flush();
+            int n = Math.min(buf.remaining(), b.length - off);
+            buf.put(b, off, n);
+            off += n;
+        }
+    }
+
+    /** Append the remaining bytes of b, leaving its position unchanged. */
+    void write(ByteBuffer b) throws IOException {
+        int off = b.position();
+        while (off < b.limit()) {
+            if (!buf.hasRemaining())
+                flush();
+            int n = Math.min(buf.remaining(), b.limit() - off);
+            buf.put(buf.position(), b, off, n);
+            buf.position(buf.position() + n);
+            off += n;
+        }
+    }
+
+    private void ensure(int n) throws IOException {
+        if (buf.remaining() < n)
+            flush();
+    }
+
+    /** Write everything buffered so far to the channel. */
+    void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            flushedOffset += ch.write(buf, flushedOffset);
+        buf.clear();
+    }
+
+    /**
+     * Overwrite a long that has already been appended, such as the
+     * checkpoint pointer at the start of the log. Flushes the buffer first
+     * so that the write cannot be overtaken by older buffered bytes.
+     */
+    void writeLongAt(long position, long v) throws IOException {
+        flush();
+        ByteBuffer b = ByteBuffer.allocate(LogFile.LONG_SIZE);
+        b.putLong(v);
+        b.flip();
+        while (b.hasRemaining())
+            position += ch.write(b, position);
+    }
+}
@@ -35,6 +35,7 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -216,6 +217,17 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT on the number of rows the query returns.  If the query
+        also has an ORDER BY, the two are planned together as a {@link TopN}.
+        @param limit the most rows to return
+     * @throws ParsingException if limit is negative
+    */
+    public void addLimit(int limit) throws ParsingException {
+        if (limit < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        this.limit = limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -474,8 +486,12 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        if (hasOrderBy && limit >= 0) {
+            node = new TopN(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, limit, node);
+        } else if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
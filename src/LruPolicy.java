@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LruPolicy evicts the least recently used page. A hit only stamps the
+ * page's frame with the current time; the victim is found by scanning the
+ * resident frames for the oldest stamp. This is the policy the BufferPool
+ * used before eviction became pluggable, and it is not scan resistant:
+ * one sequential scan larger than the pool replaces every resident page.
+ *
+ * @Threadsafe
+ */
+public class LruPolicy implements EvictionPolicy {
+
+    private final Set<PageTable.Frame> resident = new HashSet<PageTable.Frame>();
+
+    public synchronized void pageAdded(PageTable.Frame frame) {
+        frame.lastUsed = System.nanoTime();
+        resident.add(frame);
+    }
+
+    public void pageHit(PageTable.Frame frame) {
+        frame.lastUsed = System.nanoTime();
+    }
+
+    public synchronized void pageRemoved(PageTable.Frame frame) {
+        resident.remove(frame);
+    }
+
+    public synchronized Page chooseVictim(Predicate<Page> evictable) {
+        PageTable.Frame oldest = null;
+        for (PageTable.Frame f : resident) {
+            if (!evictable.test(f.page))
+                continue;
+            if (oldest == null || f.lastUsed < oldest.lastUsed)
+                oldest = f;
+        }
+        return oldest == null ? null : oldest.page;
+    }
+}
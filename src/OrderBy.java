@@ -4,17 +4,39 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It sorts with an external merge sort: the child's tuples are read into
+ * memory up to the operator's memory budget, sorted, and written out as a
+ * sorted run to a spill file, until the child is exhausted. The last run
+ * stays in memory. If there was only the one run, it is returned as it is;
+ * otherwise the runs are merged MERGE_FAN_IN at a time, through a heap of
+ * the next tuple of each run, and the last merge pass returns its tuples
+ * as it produces them. The sort is stable: tuples that compare equal come
+ * out in the order the child returned them.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The memory budget of a sort that is not given one, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
+    /** The most runs merged in one pass. */
+    public static final int MERGE_FAN_IN = 64;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
+    private final long memoryBudget;
+    private transient TupleComparator comparator;
+    // the sorted runs on disk; the last run is childTups
+    private transient ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private transient RunMerger merger;
+    private int next;
+    private long spilledBytes;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +49,23 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node with its own memory budget.
+     *
+     * @param memoryBudget
+     *            roughly how many bytes of tuples the sort holds in memory;
+     *            each sorted run is about this big
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, long memoryBudget) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryBudget = memoryBudget;
     }
     
     public boolean isASC()
@@ -53,24 +87,107 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /** @return the memory budget of the sort, in bytes */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of bytes of tuples the sort has written to spill
+     *         files since it was opened, over all its passes
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        deleteRuns();
+        spilledBytes = 0;
+        comparator = new TupleComparator(orderByField, asc);
+        long tupleBytes = SpillFile.heapBytes(td);
+        long bytes = 0;
+        childTups.clear();
+        while (child.hasNext()) {
+            childTups.add(child.next());
+            bytes += tupleBytes;
+            if (bytes > memoryBudget) {
+                runs.add(writeRun(childTups));
+                childTups.clear();
+                bytes = 0;
+            }
+        }
+        Collections.sort(childTups, comparator);
+        // merge down to the runs the last pass can take, along with the
+        // run in memory
+        while (runs.size() >= MERGE_FAN_IN) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += MERGE_FAN_IN)
+                merged.add(mergeRuns(runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()))));
+            deleteRuns();
+            runs = merged;
+        }
         super.open();
+        startMerge();
+    }
+
+    /** Sort tuples and write them to a new run. */
+    private SpillFile writeRun(ArrayList<Tuple> tuples) throws DbException {
+        Collections.sort(tuples, comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : tuples)
+            run.add(t);
+        spilledBytes += run.bytes();
+        return run;
+    }
+
+    /** Merge some runs into a new run. */
+    private SpillFile mergeRuns(List<SpillFile> group) throws DbException, TransactionAbortedException {
+        RunMerger m = new RunMerger(comparator, iterators(group), null);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t = m.next(); t != null; t = m.next())
+            run.add(t);
+        m.close();
+        spilledBytes += run.bytes();
+        return run;
+    }
+
+    private static ArrayList<DbIterator> iterators(List<SpillFile> runs) throws DbException {
+        ArrayList<DbIterator> its = new ArrayList<DbIterator>();
+        for (SpillFile run : runs)
+            its.add(run.iterator());
+        return its;
+    }
+
+    /** Start returning tuples from the first one. */
+    private void startMerge() throws DbException, TransactionAbortedException {
+        if (merger != null)
+            merger.close();
+        merger = runs.isEmpty() ? null : new RunMerger(comparator, iterators(runs), childTups);
+        next = 0;
+    }
+
+    private void deleteRuns() {
+        if (runs == null)
+            runs = new ArrayList<SpillFile>();
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        if (merger != null)
+            merger.close();
+        merger = null;
+        deleteRuns();
+        childTups.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        startMerge();
     }
 
     /**
@@ -82,10 +199,11 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+        if (merger != null)
+            return merger.next();
+        if (next < childTups.size())
+            return childTups.get(next++);
+        return null;
     }
 
     @Override
@@ -98,26 +216,94 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
+    /**
+     * RunMerger merges sorted runs into one sorted sequence, keeping the next
+     * tuple of each run in a heap. Of tuples that compare equal, the one from
+     * the earlier run comes first.
+     */
+    static class RunMerger {
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+        private final Comparator<Tuple> comparator;
+        private final ArrayList<DbIterator> runs;
+        private final List<Tuple> memoryRun;
+        private int memoryNext = 0;
+        // the run each head tuple came from, by its index in heads
+        private final PriorityQueue<Integer> heap;
+        private final Tuple[] heads;
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+        /**
+         * @param comparator the order of the runs
+         * @param runs the runs on disk, in the order they were written
+         * @param memoryRun a sorted run in memory that comes after them, or null
+         */
+        RunMerger(Comparator<Tuple> comparator, ArrayList<DbIterator> runs, List<Tuple> memoryRun)
+                throws DbException, TransactionAbortedException {
+            this.comparator = comparator;
+            this.runs = runs;
+            this.memoryRun = memoryRun;
+            this.heads = new Tuple[runs.size() + 1];
+            this.heap = new PriorityQueue<Integer>(heads.length, (a, b) -> {
+                int c = comparator.compare(heads[a], heads[b]);
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+            for (DbIterator run : runs)
+                run.open();
+            for (int i = 0; i < heads.length; i++)
+                advance(i);
+        }
+
+        // read the next tuple of run i into the heap
+        private void advance(int i) throws DbException, TransactionAbortedException {
+            Tuple t = null;
+            if (i < runs.size()) {
+                if (runs.get(i).hasNext())
+                    t = runs.get(i).next();
+            } else if (memoryRun != null && memoryNext < memoryRun.size()) {
+                t = memoryRun.get(memoryNext++);
+            }
+            heads[i] = t;
+            if (t != null)
+                heap.add(i);
+        }
+
+        /** Returns the next tuple, or null once every run is exhausted. */
+        Tuple next() throws DbException, TransactionAbortedException {
+            Integer i = heap.poll();
+            if (i == null)
+                return null;
+            Tuple t = heads[i];
+            advance(i);
+            return t;
+        }
+
+        void close() {
+            for (DbIterator run : runs)
+                run.close();
+        }
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+    /**
+     * TupleComparator orders tuples on one field, ascending or descending. It
+     * is the order of both OrderBy and TopN.
+     */
+    static class TupleComparator implements Comparator<Tuple> {
+        int field;
+        boolean asc;
+
+        public TupleComparator(int field, boolean asc) {
+            this.field = field;
+            this.asc = asc;
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            Field t1 = (o1).getField(field);
+            Field t2 = (o2).getField(field);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                return 0;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return asc ? 1 : -1;
+            else
+                return asc ? -1 : 1;
+        }
     }
-    
 }
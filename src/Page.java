@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -46,6 +48,18 @@ public interface Page {
 
     public byte[] getPageData();
 
+  /**
+   * Returns the bytes getPageData would return as a read-only buffer that
+   * later changes to the page do not affect. Pages that keep their data in
+   * serialized form can hand it out without copying it and copy it on
+   * their next write instead; the default copies it now.
+   *
+   * @return A read-only buffer holding the bytes of this page.
+   */
+    public default ByteBuffer getPageDataSnapshot() {
+        return ByteBuffer.wrap(getPageData()).asReadOnlyBuffer();
+    }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * PageTable maps PageIds to the pages resident in the BufferPool. It
+ * replaces a single synchronized LinkedHashMap: lookups go through a
+ * ConcurrentHashMap, whose reads take no lock and whose writes lock only
+ * the bin they hash to, so a cache hit never contends with hits on other
+ * pages or with an eviction in progress.
+ * <p>
+ * Which page to evict is left to an {@link EvictionPolicy}. The table
+ * tells the policy about every page added, removed and hit; additions and
+ * removals are reported from inside the map update, so the policy always
+ * sees exactly the set of resident pages.
+ *
+ * @Threadsafe
+ */
+public class PageTable {
+
+    /**
+     * A resident page plus the bookkeeping fields used by eviction
+     * policies. The fields other than page belong to the policy.
+     */
+    public static class Frame {
+        final Page page;
+        volatile int references;
+        volatile long lastUsed;
+        int slot = -1;
+
+        Frame(Page page) {
+            this.page = page;
+        }
+
+        public Page getPage() {
+            return page;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, Frame> frames;
+    private final EvictionPolicy policy;
+
+    /**
+     * @param capacity the expected number of resident pages
+     * @param concurrency the expected number of threads updating the
+     *        table at once; used to size its internal striping
+     * @param policy the policy choosing eviction victims
+     */
+    public PageTable(int capacity, int concurrency, EvictionPolicy policy) {
+        this.frames = new ConcurrentHashMap<PageId, Frame>(capacity, 0.75f, concurrency);
+        this.policy = policy;
+    }
+
+    /** Return the resident page with this id, or null, and count a hit. */
+    public Page get(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f == null)
+            return null;
+        policy.pageHit(f);
+        return f.page;
+    }
+
+    /** Return the resident page with this id, or null, without counting a hit. */
+    public Page peek(PageId pid) {
+        Frame f = frames.get(pid);
+        return f == null ? null : f.page;
+    }
+
+    /**
+     * Insert the page under its own id. Putting the page object that is
+     * already resident counts as a hit.
+     */
+    public void put(final Page page) {
+        frames.compute(page.getId(), (pid, prev) -> {
+            if (prev != null && prev.page == page) {
+                policy.pageHit(prev);
+                return prev;
+            }
+            if (prev != null)
+                policy.pageRemoved(prev);
+            Frame f = new Frame(page);
+            policy.pageAdded(f);
+            return f;
+        });
+    }
+
+    public void remove(PageId pid) {
+        frames.computeIfPresent(pid, (k, f) -> {
+            policy.pageRemoved(f);
+            return null;
+        });
+    }
+
+    /**
+     * Remove the page only if it is still the one resident under its id.
+     *
+     * @return true if the page was removed
+     */
+    public boolean remove(final Page page) {
+        final boolean[] removed = new boolean[1];
+        frames.computeIfPresent(page.getId(), (k, f) -> {
+            if (f.page != page)
+                return f;
+            policy.pageRemoved(f);
+            removed[0] = true;
+            return null;
+        });
+        return removed[0];
+    }
+
+    public boolean containsKey(PageId pid) {
+        return frames.containsKey(pid);
+    }
+
+    public int size() {
+        return frames.size();
+    }
+
+    /** Return a weakly consistent view of the resident page ids. */
+    public Set<PageId> pageIds() {
+        return Collections.unmodifiableSet(frames.keySet());
+    }
+
+    /**
+     * Return the page the eviction policy would give up next among those
+     * accepted by evictable, without removing it, or null if there is none.
+     */
+    public Page victim(Predicate<Page> evictable) {
+        return policy.chooseVictim(evictable);
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -276,9 +278,23 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, -1, tId);
+    }
+
+    /**
+     * Plan a query that has a LIMIT clause, which Zql does not parse: the
+     * clause has been taken off the statement with {@link #stripLimit}.
+     *
+     * @param limit the most rows to return, or -1 for no limit
+     */
+    public Query handleQueryStatement(ZQuery s, int limit, TransactionId tId)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.addLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -463,14 +479,45 @@ public class Parser {
         }
     }
 
+    // Zql has no LIMIT clause, so one at the end of a statement is taken off
+    // before Zql parses the rest
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+limit\\s+(\\d+)(\\s*;?\\s*)$", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * @return the number of rows in the LIMIT clause at the end of the
+     *         statement s, or -1 if it has none
+     */
+    static int parseLimit(String s) throws simpledb.ParsingException {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find())
+            return -1;
+        try {
+            return Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT " + m.group(1) + " is too large");
+        }
+    }
+
+    /**
+     * @return the statement s without the LIMIT clause at its end, if it
+     *         has one
+     */
+    static String stripLimit(String s) {
+        return LIMIT_CLAUSE.matcher(s).replaceFirst("$2");
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        int limit = parseLimit(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.addLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,8 +550,18 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n = is.read(buf); n >= 0; n = is.read(buf))
+                statement.write(buf, 0, n);
+            String sql = statement.toString("UTF-8");
+            int limit = parseLimit(sql);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    stripLimit(sql).getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported in SELECT statements.");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -524,7 +581,7 @@ public class Parser {
                         query = handleDeleteStatement((ZDelete) s,
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
-                        query = handleQueryStatement((ZQuery) s,
+                        query = handleQueryStatement((ZQuery) s, limit,
                                 curtrans.getId());
                     else {
                         System.out
@@ -581,7 +638,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
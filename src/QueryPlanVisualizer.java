@@ -15,6 +15,7 @@ public class QueryPlanVisualizer {
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(DbIterator root) {
@@ -238,6 +239,37 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String alignTxt;
+                if (plan instanceof TopN) {
+                    TopN o = (TopN) plan;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s),%3$s %4$d,card:%5$d",
+                            ORDERBY,
+                            children[0].getTupleDesc().getFieldName(
+                                    o.getOrderByField()), LIMIT, o.getLimit(),
+                            o.getEstimatedCardinality());
+                    alignTxt = ORDERBY;
+                } else {
+                    Limit l = (Limit) plan;
+                    thisNode.text = String.format("%1$s %2$d,card:%3$d", LIMIT,
+                            l.getLimit(), l.getEstimatedCardinality());
+                    alignTxt = LIMIT;
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (alignTxt.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = alignTxt.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - alignTxt.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
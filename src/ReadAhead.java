@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * ReadAhead asks the BufferPool to read the pages one scan is about to
+ * need in the background, up to the pool's read-ahead window ahead of the
+ * scan, so the scan finds them in the pool instead of stopping for each
+ * read in turn.
+ * <p>
+ * A scan of a file whose pages it reads in page number order, such as a
+ * heap file, tells ReadAhead the number of each page it reads. Once it has
+ * read two consecutive page numbers, the pages after them are prefetched;
+ * reading a page that does not follow the last one stops the read-ahead
+ * until the scan is sequential again. A scan that knows which pages come
+ * next, such as a scan along the leaves of a B+ tree, calls beforeRead
+ * with each page it reads and names the pages that follow to prefetch.
+ * <p>
+ * ReadAhead also measures how well it does for its scan: a hit is a page
+ * the scan read after prefetching it and found in the pool. A prefetched
+ * page the scan reads before it arrives waits for it rather than reading
+ * it again.
+ * <p>
+ * Prefetching takes no locks: a prefetched page only saves the scan the
+ * disk read, and the scan still locks every page it reads through
+ * BufferPool.getPage.
+ */
+public class ReadAhead {
+
+    private final IntFunction<PageId> pageId;
+    private final IntSupplier end;
+
+    private int last = -2; // the page read last
+    private int run = 0; // how many consecutive pages end with it
+    private int issuedTo = -1; // the furthest page prefetched for this run
+    private final HashSet<PageId> pending = new HashSet<PageId>();
+
+    private long pagesRead = 0;
+    private long prefetched = 0;
+    private long hits = 0;
+
+    /**
+     * Create a read-ahead for a scan that names the pages it will read.
+     */
+    public ReadAhead() {
+        this(null, null);
+    }
+
+    /**
+     * Create a read-ahead for a scan that reads pages in page number order.
+     *
+     * @param pageId makes the id of the page with a given number
+     * @param end returns the number after the last page of the file;
+     *        pages past the end are not prefetched
+     */
+    public ReadAhead(IntFunction<PageId> pageId, IntSupplier end) {
+        this.pageId = pageId;
+        this.end = end;
+    }
+
+    /**
+     * Note that the scan is about to read page pageNo through the
+     * BufferPool, and prefetch the pages after it if the scan is
+     * sequential.
+     */
+    public void beforeRead(int pageNo) {
+        ArrayList<PageId> upcoming = new ArrayList<PageId>();
+        if (pageNo == last + 1) {
+            run++;
+        } else {
+            run = 1;
+            issuedTo = pageNo;
+            pending.clear();
+        }
+        last = pageNo;
+
+        int window = Database.getBufferPool().getReadAheadWindow();
+        if (run >= 2 && window > 0 && issuedTo < pageNo + window) {
+            int to = Math.min(pageNo + window, end.getAsInt() - 1);
+            for (int p = Math.max(issuedTo, pageNo) + 1; p <= to; p++)
+                upcoming.add(pageId.apply(p));
+            issuedTo = Math.max(issuedTo, to);
+        }
+        beforeRead(pageId.apply(pageNo));
+        prefetch(upcoming);
+    }
+
+    /**
+     * Note that the scan is about to read page pid through the BufferPool.
+     */
+    public void beforeRead(PageId pid) {
+        pagesRead++;
+        if (pending.remove(pid) && Database.getBufferPool().isCached(pid))
+            hits++;
+    }
+
+    /**
+     * Prefetch the pages the scan reads next, up to the read-ahead window.
+     *
+     * @param upcoming the pages the scan reads next, in order
+     */
+    public void prefetch(List<? extends PageId> upcoming) {
+        BufferPool pool = Database.getBufferPool();
+        int window = pool.getReadAheadWindow();
+        // pages prefetched but never read, e.g. after the scan jumped
+        if (pending.size() > 2 * window)
+            pending.clear();
+        for (int i = 0; i < upcoming.size() && i < window; i++) {
+            PageId next = upcoming.get(i);
+            if (!pending.contains(next) && pool.prefetch(next)) {
+                pending.add(next);
+                prefetched++;
+            }
+        }
+    }
+
+    /** Returns the number of pages the scan has read. */
+    public long getPagesRead() {
+        return pagesRead;
+    }
+
+    /** Returns the number of pages read in the background for the scan. */
+    public long getPrefetched() {
+        return prefetched;
+    }
+
+    /** Returns the number of pages the scan found in the pool after prefetching them. */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the fraction of the prefetched pages that were in the pool
+     * when the scan got to them, or 0 if nothing was prefetched.
+     */
+    public double getHitRate() {
+        return prefetched == 0 ? 0.0 : (double) hits / prefetched;
+    }
+
+    public String toString() {
+        return String.format("%d pages read, %d prefetched, %d hits (%.0f%%)",
+                pagesRead, prefetched, hits, 100 * getHitRate());
+    }
+}
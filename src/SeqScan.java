@@ -82,6 +82,24 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Have this scan return only the tuples that satisfy p. Heap files
+     * evaluate the predicate against the raw page data, so tuples it
+     * rejects are never decoded. Must be called before open().
+     *
+     * @param p
+     *            the predicate, with field numbers of this scan's tuples
+     * @return true if the predicate was pushed into the scan; if false, the
+     *         scan is unchanged and the caller must apply p itself
+     */
+    public boolean pushPredicate(Predicate p) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            return false;
+        iterator = ((HeapFile) f).iterator(tid, p);
+        return true;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
     	 iterator.open();
@@ -128,6 +146,15 @@ public class SeqScan implements DbIterator {
     	iterator.close();
     }
 
+    /**
+     * Returns the read-ahead of the scan, which reports how many of the
+     * pages it read were prefetched, or null if the table's file does not
+     * read ahead.
+     */
+    public ReadAhead getReadAhead() {
+        return iterator.getReadAhead();
+    }
+
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
@@ -43,8 +43,9 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            HeapFileEncoder.ConvertStats stats = HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            System.out.println("Converted " + stats);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
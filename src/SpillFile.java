@@ -0,0 +1,159 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples, for an operator whose input does
+ * not fit in its memory budget to write part of it out and read it back
+ * later. Tuples are appended in the format of Field.serialize, so each one
+ * takes td.getSize() bytes on disk. Once iterator() has been called no more
+ * tuples can be added; the file can then be read any number of times until
+ * it is deleted.
+ * <p>
+ * I/O errors are reported as DbExceptions, since the operators that spill
+ * can only throw those.
+ */
+class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int count = 0;
+
+    /**
+     * Create an empty spill file for tuples with schema td.
+     */
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("spill", ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a rough count of the bytes of heap a tuple with schema td
+     * takes while it is held in memory: its serialized size, plus the Tuple,
+     * a Field per field and the reference to it. Operators with a memory
+     * budget count tuples against it with this.
+     */
+    static long heapBytes(TupleDesc td) {
+        return td.getSize() + 24L * td.numFields() + 64;
+    }
+
+    /** Append t to the file. */
+    void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is closed for writing");
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        count++;
+    }
+
+    /** @return the number of tuples in the file */
+    int size() {
+        return count;
+    }
+
+    /** @return the number of bytes written to the file */
+    long bytes() {
+        return (long) count * td.getSize();
+    }
+
+    /**
+     * Finish writing the file, and return an iterator over its tuples in the
+     * order they were added.
+     */
+    DbIterator iterator() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("could not write spill file: " + e.getMessage());
+            }
+            out = null;
+        }
+        return new SpillIterator();
+    }
+
+    /** Delete the file. */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is going away anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private class SpillIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private int read;
+
+        public void open() throws DbException {
+            close();
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BUFFER_SIZE));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            if (in == null)
+                throw new IllegalStateException("iterator not yet open");
+            return read < count;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (java.text.ParseException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing more is read from it
+                }
+                in = null;
+            }
+        }
+    }
+}
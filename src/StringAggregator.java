@@ -11,16 +11,11 @@ public class StringAggregator implements Aggregator {
     private final int gbfield;
     private final Type gbfieldtype;
     private final int afield;
-    private static class aggregateFields {
-        public String groupVal;
-        public int count;
-
-        public aggregateFields(String groupVal) {
-            this.groupVal = groupVal;
-            count = 0;
-        }
-    }
-    private final HashMap<String, aggregateFields> groups;
+    // the group of each distinct group-by value, or null with no grouping,
+    // where every tuple is in group 0
+    private final KeyTable groups;
+    private int numGroups = 0;
+    private int[] count = new int[KeyTable.INITIAL_CAPACITY]; // by group id
 
     /**
      * Aggregate constructor
@@ -37,7 +32,7 @@ public class StringAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.groups = new HashMap<>();
+        this.groups = gbfield == NO_GROUPING ? null : KeyTable.forType(gbfieldtype);
     }
 
     /**
@@ -46,18 +41,12 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        String groupVal = "";
-        if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
+        int g = groups == null ? 0 : groups.add(tup.getField(gbfield));
+        if (g == numGroups) {
+            numGroups++;
+            count = KeyTable.grow(count, numGroups);
         }
-
-        aggregateFields aggregateField = groups.get(groupVal);
-        if (aggregateField == null) {
-            aggregateField = new aggregateFields(groupVal);
-        }
-        aggregateField.count++;
-
-        groups.put(groupVal, aggregateField);
+        count[g]++;
     }
 
     /**
@@ -82,21 +71,15 @@ public class StringAggregator implements Aggregator {
             td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
         }
 
-        for (String groupVal : groups.keySet()) {
-            aggregateFields aggregateF = groups.get(groupVal);
+        for (int g = 0; g < numGroups; g++) {
             Tuple tup = new Tuple(td);
 
             if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE) {
-                    tup.setField(0, new IntField(Integer.parseInt(groupVal)));
-                }
-                else {
-                    tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
-                }
+                tup.setField(0, groups.keyAt(g));
             }
 
             if (what == Op.COUNT) {
-                tup.setField(aggField, new IntField(aggregateF.count));
+                tup.setField(aggField, new IntField(count[g]));
             }
 
             result.add(tup);
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A KeyTable on String keys: an open-addressing hash table with linear
+ * probing, keeping each slot's hash next to its id so that most probes
+ * compare ints rather than strings.
+ */
+class StringKeyTable extends KeyTable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] slotHashes;
+    private int[] slotIds; // -1 for an empty slot
+    private int mask;
+    private String[] keys = new String[INITIAL_CAPACITY]; // by id
+    private int size = 0;
+
+    StringKeyTable() {
+        allocate(INITIAL_CAPACITY * 2);
+    }
+
+    private void allocate(int slots) {
+        slotHashes = new int[slots];
+        slotIds = new int[slots];
+        Arrays.fill(slotIds, -1);
+        mask = slots - 1;
+    }
+
+    /**
+     * Returns the id of key, or -1 if it is not in the table.
+     */
+    int find(String key) {
+        int h = key.hashCode();
+        for (int i = mix(h) & mask; ; i = (i + 1) & mask) {
+            int id = slotIds[i];
+            if (id < 0 || (slotHashes[i] == h && keys[id].equals(key)))
+                return id;
+        }
+    }
+
+    /**
+     * Returns the id of key, giving it the next id if it is new.
+     */
+    int add(String key) {
+        int h = key.hashCode();
+        int i = mix(h) & mask;
+        for (; slotIds[i] >= 0; i = (i + 1) & mask) {
+            if (slotHashes[i] == h && keys[slotIds[i]].equals(key))
+                return slotIds[i];
+        }
+        int id = size++;
+        slotHashes[i] = h;
+        slotIds[i] = id;
+        if (size > keys.length)
+            keys = Arrays.copyOf(keys, 2 * keys.length);
+        keys[id] = key;
+        // keep the table at most half full
+        if (size * 2 > slotIds.length)
+            rehash();
+        return id;
+    }
+
+    private void rehash() {
+        allocate(slotIds.length * 2);
+        for (int id = 0; id < size; id++) {
+            int h = keys[id].hashCode();
+            int i = mix(h) & mask;
+            while (slotIds[i] >= 0)
+                i = (i + 1) & mask;
+            slotHashes[i] = h;
+            slotIds[i] = id;
+        }
+    }
+
+    int add(Field key) {
+        return add(((StringField) key).getValue());
+    }
+
+    int find(Field key) {
+        return find(((StringField) key).getValue());
+    }
+
+    Field keyAt(int id) {
+        return new StringField(keys[id], Type.STRING_LEN);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(slotIds, -1);
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+}
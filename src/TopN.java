@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY with a LIMIT: it returns the
+ * first n tuples of its child in the order OrderBy would, without sorting
+ * the rest. It keeps the best n tuples seen so far in a heap with the worst
+ * of them on top, which a better tuple replaces, so it reads its child in
+ * O(m log n) time for m tuples and holds only n of them in memory. Like
+ * OrderBy, it is stable: of tuples that compare equal, the one the child
+ * returned first comes first.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private TupleDesc td;
+    private int orderByField;
+    private String orderByFieldName;
+    private boolean asc;
+    private final int limit;
+    private transient OrderBy.TupleComparator comparator;
+    // a binary heap of the best tuples so far, worst first, with the
+    // position in the child of each one to break ties
+    private Tuple[] heap;
+    private long[] seqs;
+    private int size;
+    private int next;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the most tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative");
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    /** @return the most tuples this operator returns */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        comparator = new OrderBy.TupleComparator(orderByField, asc);
+        heap = new Tuple[Math.min(limit, TupleBatch.DEFAULT_SIZE)];
+        seqs = new long[heap.length];
+        size = 0;
+        for (long seq = 0; limit > 0 && child.hasNext(); seq++) {
+            Tuple t = child.next();
+            if (size < limit) {
+                if (size == heap.length) {
+                    int capacity = (int) Math.min(limit, 2L * heap.length);
+                    heap = Arrays.copyOf(heap, capacity);
+                    seqs = Arrays.copyOf(seqs, capacity);
+                }
+                heap[size] = t;
+                seqs[size] = seq;
+                siftUp(size++);
+            } else if (comparator.compare(t, heap[0]) < 0) {
+                // t comes after every tuple in the heap on a tie, so it
+                // only replaces the worst one if it is strictly better
+                heap[0] = t;
+                seqs[0] = seq;
+                siftDown(0, size);
+            }
+        }
+        // sort the heap in place, best first, by taking the worst off the
+        // top to the end
+        for (int n = size - 1; n > 0; n--) {
+            swap(0, n);
+            siftDown(0, n);
+        }
+        next = 0;
+        super.open();
+    }
+
+    // whether the tuple at i comes after the one at j
+    private boolean worse(int i, int j) {
+        int c = comparator.compare(heap[i], heap[j]);
+        return c != 0 ? c > 0 : seqs[i] > seqs[j];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(i, parent))
+                return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int n) {
+        while (true) {
+            int worst = i;
+            int l = 2 * i + 1;
+            if (l < n && worse(l, worst))
+                worst = l;
+            if (l + 1 < n && worse(l + 1, worst))
+                worst = l + 1;
+            if (worst == i)
+                return;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Tuple t = heap[i];
+        heap[i] = heap[j];
+        heap[j] = t;
+        long s = seqs[i];
+        seqs[i] = seqs[j];
+        seqs[j] = s;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        heap = null;
+        seqs = null;
+        size = 0;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        next = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the best tuples of the
+     * child in order.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (next < size)
+            return heap[next++];
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (this.child != children[0])
+            this.child = children[0];
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch is a block of up to capacity() tuples with the same schema,
+ * the unit of work of a BatchIterator. Operators that work on batches
+ * make one call per batch instead of one per tuple, and loop over the
+ * tuples of a batch in place.
+ */
+public class TupleBatch {
+
+    /** The number of tuples batch operators put in a batch by default. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final Tuple[] tuples;
+    private int size = 0;
+
+    /**
+     * Create an empty batch of DEFAULT_SIZE tuples.
+     *
+     * @param td the schema of the tuples in the batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the tuples in the batch
+     * @param capacity the most tuples the batch holds
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("batch capacity must be positive");
+        this.td = td;
+        this.tuples = new Tuple[capacity];
+    }
+
+    /** @return the schema of the tuples in the batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples in the batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return the most tuples the batch holds */
+    public int capacity() {
+        return tuples.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == tuples.length;
+    }
+
+    /**
+     * Add a tuple to the end of the batch.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(Tuple t) {
+        if (size == tuples.length)
+            throw new IllegalStateException("batch is full");
+        tuples[size++] = t;
+    }
+
+    /**
+     * @return the ith tuple of the batch
+     * @throws NoSuchElementException if i is not less than size()
+     */
+    public Tuple get(int i) {
+        if (i < 0 || i >= size)
+            throw new NoSuchElementException("no tuple " + i + " in a batch of " + size);
+        return tuples[i];
+    }
+
+    /**
+     * Keep only the tuples that satisfy p, in their order.
+     *
+     * @return the number of tuples left
+     */
+    public int retain(Predicate p) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (p.filter(tuples[i]))
+                tuples[kept++] = tuples[i];
+        }
+        for (int i = kept; i < size; i++)
+            tuples[i] = null;
+        size = kept;
+        return kept;
+    }
+
+    /** Empty the batch, to fill it again. */
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            tuples[i] = null;
+        size = 0;
+    }
+}
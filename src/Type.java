@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,20 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand) {
+            return IntField.compare(buf.getInt(offset), op, ((IntField) operand).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -35,13 +51,36 @@ public enum Type implements Serializable {
             try {
                 int strLen = dis.readInt();
                 byte bs[] = new byte[strLen];
-                dis.read(bs);
+                dis.readFully(bs);
                 dis.skipBytes(STRING_LEN-strLen);
                 return new StringField(new String(bs), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                int strLen = buf.getInt(offset);
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("couldn't parse", 0);
+                byte bs[] = new byte[strLen];
+                buf.get(offset + 4, bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand) {
+            try {
+                return parse(buf, offset).compare(op, operand);
+            } catch (ParseException e) {
+                throw new NoSuchElementException("parsing error!");
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +99,39 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the current position of the specified buffer, which is
+   *   advanced past the field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the buffer does not hold a field of this type
+   */
+    public Field parse(ByteBuffer buf) throws ParseException {
+        Field f = parse(buf, buf.position());
+        buf.position(buf.position() + getLen());
+        return f;
+    }
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer at an absolute offset. The buffer's
+   *   position is not changed.
+   * @param buf The buffer to read from
+   * @param offset Where in the buffer the field starts
+   * @throws ParseException if the buffer does not hold a field of this type
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
+  /**
+   * Compare the field of this type stored in buf at offset to operand,
+   *   with the semantics of Field.compare, decoding as little of the
+   *   field as possible.
+   * @param buf The buffer holding the field
+   * @param offset Where in the buffer the field starts
+   * @param op The operator
+   * @param operand The value to compare the field to
+   * @return Whether or not the comparison yields true.
+   */
+    public abstract boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand);
+
 }
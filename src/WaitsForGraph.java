@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WaitsForGraph tracks which transactions are blocked on which others in the
+ * LockManager and detects deadlocks as they form. Every time a transaction
+ * is about to block, its outgoing edges are replaced and a depth-first
+ * search is run from it; a new cycle must pass through the new edges, so
+ * this finds every deadlock without rescanning the whole graph.
+ * <p>
+ * The victim of a cycle is its youngest transaction (the one with the
+ * largest id), which has typically done the least work.
+ *
+ * @Threadsafe
+ */
+public class WaitsForGraph {
+
+    private final Map<TransactionId, Set<TransactionId>> waitsFor;
+    // transactions chosen as victims, mapped to the System.nanoTime() of the decision
+    private final Map<TransactionId, Long> victims;
+
+    private final AtomicLong deadlocksDetected = new AtomicLong(0);
+    private final AtomicLong abortsCompleted = new AtomicLong(0);
+    private final AtomicLong totalAbortLatencyNanos = new AtomicLong(0);
+    private final AtomicLong maxAbortLatencyNanos = new AtomicLong(0);
+
+    public WaitsForGraph() {
+        waitsFor = new HashMap<TransactionId, Set<TransactionId>>();
+        victims = new HashMap<TransactionId, Long>();
+    }
+
+    /**
+     * Record that tid is waiting for the given holders and check whether
+     * that closes a cycle.
+     *
+     * @param tid the transaction about to block
+     * @param holders the transactions whose locks tid is waiting for
+     * @return the victim chosen to break a newly formed cycle, or null if
+     *         there is none. The victim has already been marked aborted.
+     * @throws DeadlockException if tid itself was chosen as the victim
+     */
+    public synchronized TransactionId waitFor(TransactionId tid, Set<TransactionId> holders)
+            throws DeadlockException {
+        waitsFor.put(tid, new HashSet<TransactionId>(holders));
+
+        List<TransactionId> cycle = findCycle(tid);
+        if (cycle == null)
+            return null;
+
+        deadlocksDetected.incrementAndGet();
+        TransactionId victim = tid;
+        for (TransactionId t : cycle) {
+            if (t.getId() > victim.getId())
+                victim = t;
+        }
+        Debug.log(1, "WaitsForGraph: deadlock of %d transactions, aborting %d",
+                cycle.size(), victim.getId());
+
+        waitsFor.remove(victim);
+        if (victim.equals(tid)) {
+            abortsCompleted.incrementAndGet();
+            throw new DeadlockException();
+        }
+        victims.put(victim, System.nanoTime());
+        return victim;
+    }
+
+    /**
+     * Return a path tid -> ... -> tid through the graph, or null if tid is
+     * not on a cycle.
+     */
+    private List<TransactionId> findCycle(TransactionId tid) {
+        Deque<TransactionId> path = new ArrayDeque<TransactionId>();
+        Set<TransactionId> visited = new HashSet<TransactionId>();
+        path.addLast(tid);
+        if (dfs(tid, tid, path, visited))
+            return new ArrayList<TransactionId>(path);
+        return null;
+    }
+
+    private boolean dfs(TransactionId target, TransactionId cur,
+            Deque<TransactionId> path, Set<TransactionId> visited) {
+        Set<TransactionId> next = waitsFor.get(cur);
+        if (next == null)
+            return false;
+        for (TransactionId t : next) {
+            if (t.equals(target))
+                return true;
+            if (!visited.add(t))
+                continue;
+            path.addLast(t);
+            if (dfs(target, t, path, visited))
+                return true;
+            path.removeLast();
+        }
+        return false;
+    }
+
+    /** Remove the outgoing edges of tid, e.g. once its lock is granted. */
+    public synchronized void stopWaiting(TransactionId tid) {
+        waitsFor.remove(tid);
+    }
+
+    /** Return true if tid was chosen as a deadlock victim and must abort. */
+    public synchronized boolean isVictim(TransactionId tid) {
+        return victims.containsKey(tid);
+    }
+
+    /**
+     * Called by a victim's own thread once it has noticed that it must
+     * abort; records how long that took.
+     */
+    public synchronized void victimAborted(TransactionId tid) {
+        Long chosenAt = victims.get(tid);
+        if (chosenAt == null)
+            return;
+        long latency = System.nanoTime() - chosenAt;
+        abortsCompleted.incrementAndGet();
+        totalAbortLatencyNanos.addAndGet(latency);
+        if (latency > maxAbortLatencyNanos.get())
+            maxAbortLatencyNanos.set(latency);
+    }
+
+    /** Forget everything about tid; called when it commits or aborts. */
+    public synchronized void remove(TransactionId tid) {
+        waitsFor.remove(tid);
+        victims.remove(tid);
+    }
+
+    /** Number of deadlock cycles detected so far. */
+    public long getDeadlocksDetected() {
+        return deadlocksDetected.get();
+    }
+
+    /** Number of victims that have observed their abort. */
+    public long getAbortsCompleted() {
+        return abortsCompleted.get();
+    }
+
+    /**
+     * Mean time, in nanoseconds, between choosing a victim and its thread
+     * giving up its lock request.
+     */
+    public long getMeanAbortLatencyNanos() {
+        long n = abortsCompleted.get();
+        return n == 0 ? 0 : totalAbortLatencyNanos.get() / n;
+    }
+
+    /** Longest observed abort latency, in nanoseconds. */
+    public long getMaxAbortLatencyNanos() {
+        return maxAbortLatencyNanos.get();
+    }
+}
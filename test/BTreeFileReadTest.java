@@ -83,6 +83,23 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.isSlotUsed(20));
 	}
 
+	/**
+	 * A memory-mapped B+ tree file reads the same pages as a regular one
+	 */
+	@Test
+	public void readPageMemoryMapped() throws Exception {
+		BTreeFile mapped = new BTreeFile(f.getFile(), 0, td, true);
+		Database.getCatalog().addTable(mapped, "mapped");
+		assertTrue(mapped.isMemoryMapped());
+
+		BTreePageId rootPtrPid = new BTreePageId(f.getId(), 0, BTreePageId.ROOT_PTR);
+		assertArrayEquals(f.readPage(rootPtrPid).getPageData(),
+				mapped.readPage(rootPtrPid).getPageData());
+		BTreePageId pid = new BTreePageId(f.getId(), 1, BTreePageId.LEAF);
+		assertArrayEquals(f.readPage(pid).getPageData(),
+				mapped.readPage(pid).getPageData());
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		BTreeFile smallFile = BTreeUtility.createRandomBTreeFile(2, 3, null,
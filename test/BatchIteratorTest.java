@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchIteratorTest extends SimpleDbTestBase {
+
+    private static final Comparator<ArrayList<Integer>> ROW_ORDER = (a, b) -> {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return Integer.compare(a.size(), b.size());
+    };
+
+    /** The rows of it, sorted. */
+    private static ArrayList<ArrayList<Integer>> rows(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        rows.sort(ROW_ORDER);
+        return rows;
+    }
+
+    /**
+     * A tuple plan turned into batches and back returns the same tuples in
+     * the same order, and can be rewound.
+     */
+    @Test public void adaptersRoundTrip() throws Exception {
+        DbIterator scan = new TestUtil.MockScan(-5, 5, 3);
+        BatchAdapter batches = new BatchAdapter(scan, 3);
+        batches.open();
+        assertEquals(3, batches.nextBatch().size());
+        batches.close();
+
+        DbIterator tuples = new BatchDbIterator(batches);
+        DbIterator expected = new TestUtil.MockScan(-5, 5, 3);
+        tuples.open();
+        expected.open();
+        TestUtil.compareDbIterators(expected, tuples);
+        tuples.rewind();
+        expected.rewind();
+        TestUtil.compareDbIterators(expected, tuples);
+        tuples.close();
+
+        assertSame(scan, BatchDbIterator.of(batches));
+        assertSame(batches, BatchAdapter.of(tuples));
+    }
+
+    /**
+     * A batch scan of a heap file with holes returns the tuples SeqScan
+     * does, in the same order.
+     */
+    @Test public void scanMatchesSeqScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, tuples);
+        TransactionId tid = new TransactionId();
+        // empty most of the second page
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = it.next();
+            if (i >= 504 && i % 3 != 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        it.close();
+
+        DbIterator expected = new SeqScan(tid, hf.getId());
+        DbIterator actual = new BatchDbIterator(new BatchSeqScan(tid, hf.getId(), null, 100));
+        expected.open();
+        actual.open();
+        TestUtil.compareDbIterators(expected, actual);
+        expected.close();
+        actual.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Batch filter, project and aggregate return what their tuple
+     * counterparts do.
+     */
+    @Test public void filterProjectAggregate() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate pred = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30));
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+
+        DbIterator expected = new Project(fields, types, new Filter(pred, new SeqScan(tid, hf.getId())));
+        DbIterator actual = new BatchDbIterator(new BatchProject(fields, types,
+                new BatchFilter(pred, new BatchSeqScan(tid, hf.getId()))));
+        assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+        assertEquals(rows(expected), rows(actual));
+
+        // a tuple child under a batch filter
+        actual = new BatchDbIterator(new BatchFilter(pred, new BatchAdapter(new SeqScan(tid, hf.getId()))));
+        assertEquals(rows(new Filter(pred, new SeqScan(tid, hf.getId()))), rows(actual));
+
+        expected = new Aggregate(new SeqScan(tid, hf.getId()), 1, 0, Aggregator.Op.SUM);
+        actual = new BatchDbIterator(new BatchAggregate(new BatchSeqScan(tid, hf.getId()), 1, 0,
+                Aggregator.Op.SUM));
+        assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+        assertEquals(rows(expected), rows(actual));
+
+        actual = new BatchDbIterator(new BatchAggregate(new BatchSeqScan(tid, hf.getId()), 0,
+                Aggregator.NO_GROUPING, Aggregator.Op.COUNT));
+        assertEquals(Arrays.asList(Arrays.asList(5000)), rows(actual));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A batch hash join with more left tuples than fit in its hash table
+     * returns what HashEquiJoin does.
+     */
+    @Test public void hashJoin() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, BatchHashEquiJoin.MAP_SIZE + 5000, 2000, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 1000, 2000, null, null);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+        DbIterator expected = new HashEquiJoin(p, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()));
+        BatchHashEquiJoin join = new BatchHashEquiJoin(p, new BatchSeqScan(tid, left.getId()),
+                new BatchSeqScan(tid, right.getId()));
+        DbIterator actual = new BatchDbIterator(join);
+        assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+        ArrayList<ArrayList<Integer>> rows = rows(expected);
+        assertTrue(rows.size() > 1000);
+        assertEquals(rows, rows(actual));
+
+        actual.open();
+        int n = 0;
+        while (actual.hasNext()) {
+            actual.next();
+            n++;
+        }
+        actual.rewind();
+        while (actual.hasNext()) {
+            actual.next();
+            n--;
+        }
+        actual.close();
+        assertEquals(0, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchIteratorTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the rows per second of tuple-at-a-time plans with the same plans
+ * built from batch operators. Each plan runs over a heap file of three int
+ * columns that fits in the buffer pool, so the numbers reflect operator
+ * overhead rather than I/O:
+ * <ul>
+ * <li>scan: a full scan</li>
+ * <li>filter+project: a filter keeping about half the rows, then a
+ * projection of two columns</li>
+ * <li>join: a hash join of the table with a table of a tenth its size</li>
+ * <li>aggregate: a sum grouped by a column with 1000 values</li>
+ * </ul>
+ * Every plan is run a few times to warm up before it is timed.
+ * <p>
+ * Usage: java simpledb.benchmark.BatchBenchmark [rows] [runs]
+ */
+public class BatchBenchmark {
+
+    interface Plan {
+        DbIterator build(TransactionId tid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final HeapFile big = SystemTestUtil.createRandomHeapFile(3, rows, 1000, null, null);
+        final HeapFile small = SystemTestUtil.createRandomHeapFile(3, rows / 10, 1000, null, null);
+        Database.resetBufferPool(big.numPages() + small.numPages() + 16);
+        final int b = big.getId(), s = small.getId();
+        final Predicate half = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+        final ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(0, 2));
+        final Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        final JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        System.out.println("BatchBenchmark: " + rows + " rows, batches of " + TupleBatch.DEFAULT_SIZE);
+        System.out.println("plan\ttuple rows/sec\tbatch rows/sec\tspeedup");
+        compare("scan", rows, runs,
+                tid -> new SeqScan(tid, b),
+                tid -> new BatchDbIterator(new BatchSeqScan(tid, b)));
+        compare("filter+project", rows, runs,
+                tid -> new Project(fields, types, new Filter(half, new SeqScan(tid, b))),
+                tid -> new BatchDbIterator(new BatchProject(fields, types,
+                        new BatchFilter(half, new BatchSeqScan(tid, b)))));
+        compare("join", rows + rows / 10, runs,
+                tid -> new HashEquiJoin(eq, new SeqScan(tid, s), new SeqScan(tid, b)),
+                tid -> new BatchDbIterator(new BatchHashEquiJoin(eq, new BatchSeqScan(tid, s),
+                        new BatchSeqScan(tid, b))));
+        compare("aggregate", rows, runs,
+                tid -> new Aggregate(new SeqScan(tid, b), 2, 1, Aggregator.Op.SUM),
+                tid -> new BatchDbIterator(new BatchAggregate(new BatchSeqScan(tid, b), 2, 1,
+                        Aggregator.Op.SUM)));
+    }
+
+    private static void compare(String name, int inputRows, int runs, Plan tuples, Plan batches)
+            throws Exception {
+        double tupleRate = best(inputRows, runs, tuples);
+        double batchRate = best(inputRows, runs, batches);
+        System.out.printf("%s\t%.0f\t%.0f\t%.2fx%n", name, tupleRate, batchRate, batchRate / tupleRate);
+    }
+
+    /** Returns the best input rows per second of runs timed runs of plan. */
+    private static double best(int inputRows, int runs, Plan plan) throws Exception {
+        double best = 0;
+        for (int i = 0; i < runs + 2; i++) {
+            TransactionId tid = new TransactionId();
+            DbIterator it = plan.build(tid);
+            long start = System.nanoTime();
+            it.open();
+            long n = 0;
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+            it.close();
+            long elapsed = System.nanoTime() - start;
+            Database.getBufferPool().transactionComplete(tid);
+            if (n < 0)
+                throw new AssertionError();
+            // the first two runs are warmup
+            if (i >= 2)
+                best = Math.max(best, inputRows * 1e9 / elapsed);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures the rate at which tuples are loaded into an empty heap file,
+ * by a BulkLoader in one logged transaction and by an unlogged one, as
+ * SimpleDb convert does, and reports it next to the rate at which the
+ * pages reach the disk. A bulk load should be bound by that write rate,
+ * not by the work done per tuple.
+ * <p>
+ * Usage: java simpledb.benchmark.BulkLoadBenchmark [rows]
+ */
+public class BulkLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+        System.out.println("BulkLoadBenchmark: " + rows + " rows of two ints");
+        System.out.println("mode\trows/sec\tMB/sec");
+        for (boolean logged : new boolean[] { false, true }) {
+            File f = File.createTempFile("bulkbench", ".dat");
+            f.deleteOnExit();
+            HeapFile hf = Utility.openHeapFile(2, f);
+            Transaction t = null;
+            if (logged) {
+                t = new Transaction();
+                t.start();
+            }
+
+            long begin = System.nanoTime();
+            BulkLoader loader = new BulkLoader(logged ? t.getId() : null, hf);
+            for (int i = 0; i < rows; i++)
+                loader.add(Utility.getHeapTuple(new int[] { i, i }));
+            loader.finish();
+            if (logged)
+                t.commit();
+            hf.sync();
+            double secs = (System.nanoTime() - begin) / 1e9;
+
+            double mb = (double) hf.numPages() * BufferPool.getPageSize() / (1 << 20);
+            System.out.printf("%s\t%.0f\t%.1f%n", logged ? "logged" : "unlogged",
+                    rows / secs, mb / secs);
+            Database.getCatalog().clear();
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures first-row latency, total time and peak heap of a selective
+ * Filter over a SeqScan of a large table, with and without a LIMIT above
+ * it. For comparison, the same filter is also run the way Filter used to
+ * run it, collecting every passing tuple into a TupleIterator before
+ * returning the first one.
+ * <p>
+ * The table has two int columns with values below 1000; the filter keeps
+ * rows whose first column is below the given selectivity times 1000.
+ * <p>
+ * Usage: java simpledb.benchmark.FilterBenchmark [rows] [selectivity]
+ */
+public class FilterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        double selectivity = args.length > 1 ? Double.parseDouble(args[1]) : 0.5;
+
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, null);
+        final Predicate p = new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField((int) (selectivity * 1000)));
+
+        System.out.println("FilterBenchmark: " + rows + " rows, " + f.numPages() + " pages, selectivity "
+                + selectivity);
+        System.out.println("plan\tfirst row ms\ttotal ms\tpeak heap MB\trows");
+        for (int i = 0; i < 2; i++) {
+            // the first round warms up
+            boolean print = i == 1;
+            run("materialized", print, tid -> materialize(new Filter(p, new SeqScan(tid, f.getId()))));
+            run("streaming", print, tid -> new Filter(p, new SeqScan(tid, f.getId())));
+            run("limit 10", print, tid -> new Limit(10, new Filter(p, new SeqScan(tid, f.getId()))));
+        }
+    }
+
+    interface Plan {
+        DbIterator build(TransactionId tid) throws Exception;
+    }
+
+    /**
+     * Returns a TupleIterator over every tuple of it, read when it is
+     * opened, the way Filter used to buffer its result.
+     */
+    private static DbIterator materialize(final DbIterator it) {
+        return new TupleIterator(it.getTupleDesc(), new ArrayList<Tuple>()) {
+            private static final long serialVersionUID = 1L;
+            private TupleIterator all;
+
+            public void open() {
+                try {
+                    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+                    it.open();
+                    while (it.hasNext())
+                        tuples.add(it.next());
+                    it.close();
+                    all = new TupleIterator(it.getTupleDesc(), tuples);
+                    all.open();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            public boolean hasNext() {
+                return all.hasNext();
+            }
+
+            public Tuple next() {
+                return all.next();
+            }
+
+            public void close() {
+                all = null;
+            }
+        };
+    }
+
+    private static void run(String name, boolean print, Plan plan) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+        long base = heapUsed(false);
+
+        TransactionId tid = new TransactionId();
+        DbIterator it = plan.build(tid);
+        long start = System.nanoTime();
+        it.open();
+        long first = -1;
+        long n = 0;
+        while (it.hasNext()) {
+            it.next();
+            if (n++ == 0)
+                first = System.nanoTime() - start;
+        }
+        long total = System.nanoTime() - start;
+        long peak = heapUsed(true) - base;
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        if (print)
+            System.out.printf("%s\t%.1f\t%.1f\t%.1f\t%d%n", name, first / 1e6, total / 1e6,
+                    peak / (1024.0 * 1024), n);
+    }
+
+    /** Returns the bytes of heap in use, or the peak since the last reset. */
+    private static long heapUsed(boolean peak) {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                used += peak ? pool.getPeakUsage().getUsed() : pool.getUsage().getUsed();
+        }
+        return used;
+    }
+}
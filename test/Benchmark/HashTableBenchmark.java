@@ -0,0 +1,140 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import simpledb.*;
+
+/**
+ * Compares rows per second and bytes allocated per row of integer group-by
+ * aggregation and hash joins keyed on boxed objects, the way
+ * IntegerAggregator and HashEquiJoin used to key them, with the operators,
+ * which now key them on the raw int through flat-array hash tables.
+ * <ul>
+ * <li>group by: SUM of one int column grouped by another with 10000
+ * values. The boxed version looks each row up in a HashMap by the string
+ * of its group-by value.</li>
+ * <li>join: an equality join of two inputs on an int column with 100000
+ * values, every right row matching one left row. The boxed version builds
+ * a HashMap from Field to a list of tuples.</li>
+ * </ul>
+ * Inputs are tuples in memory, so there is no I/O. Allocation is measured
+ * with the JVM's per-thread allocation counter, and each case is timed
+ * several times, keeping the best run.
+ * <p>
+ * Usage: java simpledb.benchmark.HashTableBenchmark [rows] [runs]
+ */
+public class HashTableBenchmark {
+
+    // keeps the JIT from optimizing away tuples nobody reads
+    static Tuple sink;
+
+    interface Case {
+        long run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final TupleDesc td = Utility.getTupleDesc(2);
+        Random r = new Random(1);
+
+        final ArrayList<Tuple> groupInput = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++)
+            groupInput.add(tuple(td, r.nextInt(10000), r.nextInt(1000)));
+
+        final int keys = 100000;
+        final ArrayList<Tuple> buildInput = new ArrayList<Tuple>();
+        for (int i = 0; i < keys; i++)
+            buildInput.add(tuple(td, i, i));
+        final ArrayList<Tuple> probeInput = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++)
+            probeInput.add(tuple(td, r.nextInt(keys), i));
+        final TupleDesc joined = TupleDesc.merge(td, td);
+
+        System.out.println("HashTableBenchmark: " + rows + " rows");
+        System.out.println("case\trows/sec\tbytes allocated/row");
+        report("group by, boxed", rows, runs, () -> {
+            HashMap<String, int[]> groups = new HashMap<String, int[]>();
+            for (Tuple t : groupInput) {
+                String key = t.getField(0).toString();
+                int[] sum = groups.get(key);
+                if (sum == null)
+                    groups.put(key, sum = new int[1]);
+                sum[0] += ((IntField) t.getField(1)).getValue();
+            }
+            return groups.size();
+        });
+        report("group by, IntegerAggregator", rows, runs, () -> {
+            Aggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+            for (Tuple t : groupInput)
+                agg.mergeTupleIntoGroup(t);
+            return count(agg.iterator());
+        });
+        report("join, boxed", keys + rows, runs, () -> {
+            HashMap<Field, ArrayList<Tuple>> map = new HashMap<Field, ArrayList<Tuple>>();
+            for (Tuple t : buildInput)
+                map.computeIfAbsent(t.getField(0), k -> new ArrayList<Tuple>()).add(t);
+            long n = 0;
+            for (Tuple t2 : probeInput) {
+                ArrayList<Tuple> matches = map.get(t2.getField(0));
+                if (matches == null)
+                    continue;
+                for (Tuple t1 : matches) {
+                    Tuple out = new Tuple(joined);
+                    for (int i = 0; i < 2; i++) {
+                        out.setField(i, t1.getField(i));
+                        out.setField(2 + i, t2.getField(i));
+                    }
+                    sink = out;
+                    n++;
+                }
+            }
+            return n;
+        });
+        final TupleIterator build = new TupleIterator(td, buildInput);
+        final TupleIterator probe = new TupleIterator(td, probeInput);
+        report("join, HashEquiJoin", keys + rows, runs, () -> count(new HashEquiJoin(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 0), build, probe)));
+    }
+
+    private static Tuple tuple(TupleDesc td, int a, int b) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        return t;
+    }
+
+    private static long count(DbIterator it) throws Exception {
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private static void report(String name, int rows, int runs, Case c) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long self = Thread.currentThread().getId();
+        double best = 0;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < runs + 2; i++) {
+            long before = threads.getThreadAllocatedBytes(self);
+            long start = System.nanoTime();
+            if (c.run() < 0)
+                throw new AssertionError();
+            long elapsed = System.nanoTime() - start;
+            long bytes = threads.getThreadAllocatedBytes(self) - before;
+            // the first two runs are warmup
+            if (i >= 2) {
+                best = Math.max(best, rows * 1e9 / elapsed);
+                allocated = Math.min(allocated, bytes);
+            }
+        }
+        System.out.printf("%s\t%.0f\t%.1f%n", name, best, (double) allocated / rows);
+    }
+}
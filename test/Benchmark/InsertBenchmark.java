@@ -0,0 +1,53 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures insert throughput as a heap file grows. Tuples are inserted
+ * through the BufferPool into an initially empty table, in transactions
+ * that each fill a fixed number of pages, and the rate of every
+ * transaction is printed next to the size of the table at that point. An
+ * insert that has to look for free space page by page slows down as the
+ * table grows; with the free space map the rate stays flat.
+ * <p>
+ * Pages per transaction must stay below the BufferPool size, since
+ * dirty pages cannot be evicted before commit.
+ * <p>
+ * Usage: java simpledb.benchmark.InsertBenchmark [pages] [pages per transaction]
+ */
+public class InsertBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int pagesPerTxn = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        File f = File.createTempFile("insertbench", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = Utility.openHeapFile(2, f);
+        // two int columns: 504 tuples per page
+        int tuplesPerTxn = pagesPerTxn * 504;
+
+        System.out.println("InsertBenchmark: " + pages + " pages, "
+                + tuplesPerTxn + " tuples per transaction");
+        System.out.println("pages\tinserts/sec");
+        long total = 0;
+        long totalNanos = 0;
+        while (hf.numPages() < pages) {
+            Transaction t = new Transaction();
+            t.start();
+            long begin = System.nanoTime();
+            for (int i = 0; i < tuplesPerTxn; i++)
+                Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                        Utility.getHeapTuple(new int[] { i, i }));
+            t.commit();
+            long elapsed = System.nanoTime() - begin;
+            total += tuplesPerTxn;
+            totalNanos += elapsed;
+            System.out.printf("%d\t%.0f%n", hf.numPages(), tuplesPerTxn / (elapsed / 1e9));
+        }
+        System.out.printf("overall\t%.0f%n", total / (totalNanos / 1e9));
+        f.delete();
+    }
+}
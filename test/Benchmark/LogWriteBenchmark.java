@@ -0,0 +1,49 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how fast the log appends UPDATE records. Every record carries
+ * the before and after image of the same 4 KB heap page, the shape of the
+ * records written at commit, and the log is forced once at the end so the
+ * time includes getting the bytes to disk.
+ * <p>
+ * Usage: java simpledb.benchmark.LogWriteBenchmark [records] [runs]
+ */
+public class LogWriteBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        Page page = hf.readPage(new HeapPageId(hf.getId(), 0));
+
+        System.out.println("LogWriteBenchmark: " + records + " UPDATE records of "
+                + BufferPool.getPageSize() + " byte pages");
+        System.out.println("run\trecords/sec\tMB/sec");
+        for (int run = 1; run <= runs; run++) {
+            File f = File.createTempFile("logbench", ".log");
+            f.deleteOnExit();
+            LogFile log = new LogFile(f);
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+
+            long begin = System.nanoTime();
+            for (int i = 0; i < records; i++)
+                log.logWrite(tid, page, page);
+            log.force();
+            long elapsed = System.nanoTime() - begin;
+
+            double seconds = elapsed / 1e9;
+            System.out.printf("%d\t%.0f\t%.1f%n", run, records / seconds,
+                    f.length() / seconds / (1 << 20));
+            log.logCommit(tid);
+            log.shutdown();
+            f.delete();
+        }
+    }
+}
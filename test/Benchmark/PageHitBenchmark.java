@@ -0,0 +1,85 @@
+package simpledb.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures BufferPool hit throughput under concurrent read-only scans.
+ * A heap file that fits in the buffer pool is warmed up, then 1, 2, 4, ...
+ * up to the number of available cores threads each repeatedly fetch every
+ * page of it with READ_ONLY permissions on behalf of their own
+ * transaction. Every fetch is a hit, so the numbers reflect the cost of the
+ * page table and the lock manager alone.
+ * <p>
+ * Usage: java simpledb.benchmark.PageHitBenchmark [pages] [seconds per run]
+ */
+public class PageHitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        final long runMillis = (args.length > 1 ? Long.parseLong(args[1]) : 2) * 1000;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // two int columns: 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, numPages * 504, null, null);
+        Database.resetBufferPool(numPages);
+        final PageId[] pids = new PageId[f.numPages()];
+        for (int i = 0; i < pids.length; i++)
+            pids[i] = new HeapPageId(f.getId(), i);
+
+        TransactionId warm = new TransactionId();
+        for (PageId pid : pids)
+            Database.getBufferPool().getPage(warm, pid, Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(warm);
+
+        System.out.println("PageHitBenchmark: " + pids.length + " pages, " + cores + " cores");
+        System.out.println("threads\thits/sec\tscaling");
+        double base = 0;
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double rate = run(threads, pids, runMillis);
+            if (threads == 1)
+                base = rate;
+            System.out.printf("%d\t%.0f\t%.2fx%n", threads, rate, rate / base);
+        }
+    }
+
+    private static double run(int threads, final PageId[] pids, final long runMillis)
+            throws InterruptedException {
+        final AtomicLong hits = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                public void run() {
+                    long n = 0;
+                    try {
+                        start.await();
+                        BufferPool bp = Database.getBufferPool();
+                        while (System.currentTimeMillis() < deadline[0]) {
+                            TransactionId tid = new TransactionId();
+                            for (PageId pid : pids)
+                                bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            bp.transactionComplete(tid);
+                            n += pids.length;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    hits.addAndGet(n);
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.currentTimeMillis();
+        deadline[0] = begin + runMillis;
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+        long elapsed = System.currentTimeMillis() - begin;
+        return hits.get() * 1000.0 / elapsed;
+    }
+}
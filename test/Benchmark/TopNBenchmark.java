@@ -0,0 +1,75 @@
+package simpledb.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures total time and peak heap of ORDER BY ... LIMIT over a SeqScan of
+ * a large table, planned as a full OrderBy under a Limit and as the TopN
+ * the planner now fuses them into.
+ * <p>
+ * The table has two int columns with values below 1000000, and the sort is
+ * on the first.
+ * <p>
+ * Usage: java simpledb.benchmark.TopNBenchmark [rows] [limit]
+ */
+public class TopNBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int limit = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 1000000, null, null);
+
+        System.out.println("TopNBenchmark: " + rows + " rows, " + f.numPages() + " pages, limit " + limit);
+        System.out.println("plan\ttotal ms\tpeak heap MB\trows");
+        for (int i = 0; i < 2; i++) {
+            // the first round warms up
+            boolean print = i == 1;
+            run("sort + limit", print, tid -> new Limit(limit, new OrderBy(0, true, new SeqScan(tid, f.getId()))));
+            run("top-n", print, tid -> new TopN(0, true, limit, new SeqScan(tid, f.getId())));
+        }
+    }
+
+    interface Plan {
+        DbIterator build(TransactionId tid) throws Exception;
+    }
+
+    private static void run(String name, boolean print, Plan plan) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+        long base = heapUsed(false);
+
+        TransactionId tid = new TransactionId();
+        DbIterator it = plan.build(tid);
+        long start = System.nanoTime();
+        it.open();
+        long n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        long total = System.nanoTime() - start;
+        long peak = heapUsed(true) - base;
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        if (print)
+            System.out.printf("%s\t%.1f\t%.1f\t%d%n", name, total / 1e6, peak / (1024.0 * 1024), n);
+    }
+
+    /** Returns the bytes of heap in use, or the peak since the last reset. */
+    private static long heapUsed(boolean peak) {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                used += peak ? pool.getPeakUsage().getUsed() : pool.getUsage().getUsed();
+        }
+        return used;
+    }
+}
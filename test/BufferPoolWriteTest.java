@@ -1,8 +1,6 @@
 package simpledb;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -34,12 +32,11 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     			throws DbException, IOException, TransactionAbortedException {
     		ArrayList<Page> dirtypages = new ArrayList<Page>();
     		for(int i = 0; i < duplicates; i++) {
-    			// create a blank page
-    			BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(super.getFile(), true));
-                byte[] emptyData = HeapPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
-    			HeapPage p = new HeapPage(new HeapPageId(super.getId(), super.numPages() - 1), 
+    			// append a blank page; writing it through the file keeps
+    			// numPages up to date
+    			HeapPageId pid = new HeapPageId(super.getId(), super.numPages());
+    			super.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+    			HeapPage p = new HeapPage(pid,
     					HeapPage.createEmptyPageData());
     	        p.insertTuple(t);
     			dirtypages.add(p);
@@ -133,6 +130,81 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Eviction must pass over dirty pages, and fail only when nothing else
+     * is left.
+     */
+    @Test public void evictionSkipsDirtyPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*3, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        HeapPageId p0 = new HeapPageId(hf.getId(), 0);
+        HeapPageId p1 = new HeapPageId(hf.getId(), 1);
+        HeapPageId p2 = new HeapPageId(hf.getId(), 2);
+
+        Page dirty = bp.getPage(tid, p0, Permissions.READ_WRITE);
+        dirty.markDirty(true, tid);
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+
+        // p1 is the only clean page, so it makes room for p2
+        bp.getPage(tid, p2, Permissions.READ_ONLY).markDirty(true, tid);
+        assertSame(dirty, bp.getPage(tid, p0, Permissions.READ_ONLY));
+
+        try {
+            bp.getPage(tid, p1, Permissions.READ_ONLY);
+            fail("expected DbException when every page is dirty");
+        } catch (DbException e) {
+            // expected
+        }
+        assertSame(dirty, bp.getPage(tid, p0, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Committing writes the pages the transaction dirtied, and only those.
+     */
+    @Test public void commitFlushesDirtiedPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*3, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId other = new TransactionId();
+        // dirty page 0 for tid and page 2 for another transaction
+        bp.deleteTuple(tid, firstTuple(hf, 0));
+        HeapPage p2 = (HeapPage) bp.getPage(other, new HeapPageId(hf.getId(), 2), Permissions.READ_WRITE);
+        p2.deleteTuple(firstTuple(hf, 2));
+        p2.markDirty(true, other);
+
+        bp.transactionComplete(tid, true);
+        assertNull(bp.getPage(other, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY).isDirty());
+        assertEquals(other, p2.isDirty());
+
+        // page 0 is on disk with one free slot, page 2 is not
+        assertEquals(1, ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0))).getNumEmptySlots());
+        assertEquals(0, ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2))).getNumEmptySlots());
+        bp.transactionComplete(other, false);
+    }
+
+    /**
+     * Aborting drops the cached pages the transaction dirtied, so the next
+     * reader sees the committed version from disk.
+     */
+    @Test public void abortDiscardsDirtiedPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        bp.deleteTuple(tid, firstTuple(hf, 0));
+        assertEquals(1, ((HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY)).getNumEmptySlots());
+
+        bp.transactionComplete(tid, false);
+        TransactionId reader = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY);
+        assertEquals(0, p.getNumEmptySlots());
+        assertNull(p.isDirty());
+        bp.transactionComplete(reader);
+    }
+
+    private Tuple firstTuple(HeapFile hf, int pageNo) {
+        HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pageNo));
+        return p.iterator().next();
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    // 504 two-int tuples fit on a page
+    private static final int TUPLES = 504 * 3 + 7;
+
+    private static ArrayList<Integer> row(int i) {
+        return new ArrayList<Integer>(Arrays.asList(i, -i));
+    }
+
+    private static int load(TransactionId tid, HeapFile hf, List<ArrayList<Integer>> rows)
+            throws Exception {
+        BulkLoader loader = new BulkLoader(tid, hf);
+        for (int i = 0; i < TUPLES; i++) {
+            rows.add(row(i));
+            loader.add(Utility.getHeapTuple(new int[] { i, -i }));
+        }
+        return loader.finish();
+    }
+
+    /**
+     * Loaded tuples are appended as new pages and are there after commit.
+     */
+    @Test public void loadAndCommit() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, rows);
+
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(TUPLES, load(t.getId(), hf, rows));
+        assertEquals(5, hf.numPages());
+        for (int i = 1; i < 5; i++)
+            assertTrue(Database.getBufferPool().holdsLock(t.getId(), new HeapPageId(hf.getId(), i)));
+        t.commit();
+
+        SystemTestUtil.matchTuples(hf, rows);
+        // the free space map knows which loaded pages have room
+        assertEquals(4, hf.freeSpace().nextPageWithSpace(1));
+    }
+
+    /**
+     * Aborting the loading transaction leaves only empty pages behind.
+     */
+    @Test public void abortRollsBackLoad() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, rows);
+        List<ArrayList<Integer>> committed = new ArrayList<ArrayList<Integer>>(rows);
+
+        Transaction t = new Transaction();
+        t.start();
+        load(t.getId(), hf, rows);
+        t.abort();
+
+        SystemTestUtil.matchTuples(hf, committed);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, committed);
+    }
+
+    /**
+     * An Insert of more than a page of tuples bulk loads the rest.
+     */
+    @Test public void insertBulkLoads() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, rows);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < TUPLES; i++) {
+            rows.add(row(i));
+            tuples.add(Utility.getHeapTuple(new int[] { i, -i }));
+        }
+
+        Transaction t = new Transaction();
+        t.start();
+        Insert insert = new Insert(t.getId(),
+                new TupleIterator(Utility.getTupleDesc(2), tuples), hf.getId());
+        insert.open();
+        assertEquals(TUPLES, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        t.commit();
+
+        SystemTestUtil.matchTuples(hf, rows);
+    }
+
+    /**
+     * Aborting a multi-page Insert through the BufferPool, with no logged
+     * Transaction, leaves the table as it was, bulk loaded pages included.
+     */
+    @Test public void insertAbortLeavesTableUnchanged() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, rows);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 3000; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { i, -i }));
+
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid,
+                new TupleIterator(Utility.getTupleDesc(2), tuples), hf.getId());
+        insert.open();
+        assertEquals(3000, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        assertTrue(hf.numPages() > 2);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        SystemTestUtil.matchTuples(hf, rows);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, rows);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
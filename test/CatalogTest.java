@@ -1,7 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +98,29 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that loadSchema opens the tables marked mmap in memory-mapped mode
+     */
+    @Test public void loadSchemaMemoryMapped() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("scanned (a int, b string) mmap\n");
+        w.write("updated (a int pk, b int)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile scanned = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("scanned"));
+        HeapFile updated = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("updated"));
+        assertTrue(scanned.isMemoryMapped());
+        assertFalse(updated.isMemoryMapped());
+        assertEquals("a", Database.getCatalog().getPrimaryKey(updated.getId()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DeadlockTest extends SimpleDbTestBase {
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+
+    private static final int POLL_INTERVAL = 100;
+    private static final int WAIT_LIMIT = 5000;
+
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int i = 0; i < 505; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+
+        this.p0 = new HeapPageId(empty.getId(), 0);
+        this.p1 = new HeapPageId(empty.getId(), 1);
+        bp.transactionComplete(tid);
+
+        // tid2 is younger than tid1, so it is the one that should be aborted
+        this.tid1 = new TransactionId();
+        this.tid2 = new TransactionId();
+    }
+
+    private TestUtil.LockGrabber startGrabber(TransactionId tid, PageId pid,
+            Permissions perm) throws InterruptedException {
+        TestUtil.LockGrabber lg = new TestUtil.LockGrabber(tid, pid, perm);
+        lg.setDaemon(true);
+        lg.start();
+        Thread.sleep(POLL_INTERVAL);
+        return lg;
+    }
+
+    private void awaitResolution(TestUtil.LockGrabber a, TestUtil.LockGrabber b)
+            throws InterruptedException {
+        for (int waited = 0; waited < WAIT_LIMIT; waited += POLL_INTERVAL) {
+            if ((a.acquired() || a.getError() != null)
+                    && (b.acquired() || b.getError() != null))
+                return;
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    /**
+     * Two transactions each hold a write lock the other one needs. The
+     * younger one must be aborted and the older one must get its lock.
+     */
+    @Test public void testWriteWriteDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+        TestUtil.LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(lg1.acquired());
+        TestUtil.LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+
+        awaitResolution(lg1, lg2);
+        assertTrue(lg2.getError() instanceof TransactionAbortedException);
+        assertTrue(lg1.acquired());
+        assertNull(lg1.getError());
+        assertEquals(1, bp.getDeadlockStats().getDeadlocksDetected());
+    }
+
+    /**
+     * Two readers of the same page both try to upgrade. Only the older one
+     * may proceed.
+     */
+    @Test public void testUpgradeDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+
+        TestUtil.LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(lg2.acquired());
+        TestUtil.LockGrabber lg1 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+
+        awaitResolution(lg1, lg2);
+        assertTrue(lg2.getError() instanceof TransactionAbortedException);
+        assertTrue(lg1.acquired());
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertFalse(bp.holdsLock(tid2, p0));
+        assertEquals(1, bp.getDeadlockStats().getAbortsCompleted());
+    }
+
+    /**
+     * Plain contention without a cycle must not abort anybody.
+     */
+    @Test public void testNoFalsePositive() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_ONLY);
+        assertFalse(lg2.acquired());
+        assertNull(lg2.getError());
+
+        bp.transactionComplete(tid1);
+        lg2.join(WAIT_LIMIT);
+        assertTrue(lg2.acquired());
+        assertEquals(0, bp.getDeadlockStats().getDeadlocksDetected());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.function.Predicate;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final int CAPACITY = 8;
+
+    private static final Predicate<Page> ANY_PAGE = p -> true;
+
+    /** Minimal page that only has an id. */
+    static class StubPage implements Page {
+        private final PageId pid;
+
+        StubPage(int pageNo) {
+            this.pid = new HeapPageId(1, pageNo);
+        }
+
+        public PageId getId() { return pid; }
+        public TransactionId isDirty() { return null; }
+        public void markDirty(boolean dirty, TransactionId tid) { }
+        public byte[] getPageData() { return new byte[0]; }
+        public Page getBeforeImage() { return this; }
+        public void setBeforeImage() { }
+    }
+
+    /**
+     * Simulate BufferPool.getPage: return the page on a hit, otherwise
+     * evict down to capacity and load it.
+     */
+    private void fetch(PageTable table, Page p) {
+        if (table.get(p.getId()) != null)
+            return;
+        while (table.size() >= CAPACITY) {
+            Page victim = table.victim(ANY_PAGE);
+            assertNotNull(victim);
+            assertTrue(table.remove(victim));
+        }
+        table.put(p);
+    }
+
+    /**
+     * A working set touched repeatedly must survive a scan of pages that
+     * are each read only once.
+     */
+    @Test public void clockIsScanResistant() {
+        PageTable table = new PageTable(CAPACITY, 1, new ClockPolicy());
+        Page[] hot = new Page[CAPACITY / 2];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = new StubPage(i);
+            fetch(table, hot[i]);
+            fetch(table, hot[i]);
+        }
+
+        for (int i = 0; i < 100; i++)
+            fetch(table, new StubPage(1000 + i));
+
+        for (Page p : hot)
+            assertTrue(table.containsKey(p.getId()));
+        assertEquals(CAPACITY, table.size());
+    }
+
+    /**
+     * LRU, by contrast, lets the same scan flush the working set.
+     */
+    @Test public void lruIsNotScanResistant() {
+        PageTable table = new PageTable(CAPACITY, 1, new LruPolicy());
+        Page hot = new StubPage(0);
+        fetch(table, hot);
+        fetch(table, hot);
+
+        for (int i = 0; i < 100; i++)
+            fetch(table, new StubPage(1000 + i));
+
+        assertFalse(table.containsKey(hot.getId()));
+    }
+
+    /**
+     * Once every resident page is hot, index pages outlive data pages that
+     * were hit at the same time.
+     */
+    @Test public void clockFavorsIndexPages() throws Exception {
+        PageTable table = new PageTable(CAPACITY, 1, new ClockPolicy());
+        Page root = new BTreeRootPtrPage(BTreeRootPtrPage.getId(1),
+                BTreeRootPtrPage.createEmptyPageData());
+        Page data = new StubPage(0);
+        fetch(table, root);
+        fetch(table, root);
+        fetch(table, data);
+        fetch(table, data);
+
+        // pages that are each used twice, so the hot hand has to age pages
+        for (int i = 0; i < CAPACITY; i++) {
+            Page p = new StubPage(1000 + i);
+            fetch(table, p);
+            fetch(table, p);
+        }
+
+        assertTrue(table.containsKey(root.getId()));
+        assertFalse(table.containsKey(data.getId()));
+    }
+
+    /**
+     * Removing and replacing pages keeps the policy in step with the table.
+     */
+    @Test public void clockTracksRemovals() {
+        PageTable table = new PageTable(CAPACITY, 1, new ClockPolicy());
+        for (int i = 0; i < CAPACITY; i++)
+            fetch(table, new StubPage(i));
+        for (int i = 0; i < CAPACITY; i++)
+            table.remove(new HeapPageId(1, i));
+        assertEquals(0, table.size());
+        assertNull(table.victim(ANY_PAGE));
+
+        Page p = new StubPage(42);
+        table.put(p);
+        table.put(new StubPage(42));
+        assertNotSame(p, table.peek(p.getId()));
+        assertNotSame(p, table.victim(ANY_PAGE));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
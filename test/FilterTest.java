@@ -120,6 +120,36 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Filter reads only as far into its child as it takes to find the next
+   * tuple that passes, so stopping early, as under a Limit, stops the scan.
+   */
+  @Test public void filterIsPipelined() throws Exception {
+    final int[] read = new int[1];
+    this.scan = new TestUtil.MockScan(-5, 5, testWidth) {
+      public Tuple next() throws DbException, TransactionAbortedException {
+        read[0]++;
+        return super.next();
+      }
+    };
+    Predicate pred = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-3));
+    Filter op = new Filter(pred, scan);
+    op.open();
+    assertEquals(0, read[0]);
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(-3, testWidth), op.next()));
+    assertEquals(3, read[0]);
+    op.close();
+
+    Limit limit = new Limit(2, op);
+    limit.open();
+    read[0] = 0;
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(-3, testWidth), limit.next()));
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(-2, testWidth), limit.next()));
+    assertTrue(TestUtil.checkExhausted(limit));
+    assertEquals(4, read[0]);
+    limit.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -130,6 +130,57 @@ public class HashEquiJoinTest extends SimpleDbTestBase {
       validateJoin(1,10,1,30001);
   }
 
+  /** The rows a join returns, sorted. */
+  private static ArrayList<String> joinRows(HashEquiJoin op) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      rows.add(op.next().toString());
+    op.close();
+    java.util.Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * A join whose left input does not fit in its memory budget partitions
+   * both inputs to disk and returns the same tuples as one that fits.
+   */
+  @Test public void spillsOverBudget() throws Exception {
+    HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 20000, 5000, null, null);
+    HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 5000, null, null);
+    TransactionId tid = new TransactionId();
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    HashEquiJoin inMemory = new HashEquiJoin(p, new SeqScan(tid, table1.getId()),
+        new SeqScan(tid, table2.getId()));
+    ArrayList<String> expected = joinRows(inMemory);
+    assertEquals(0, inMemory.getSpilledBytes());
+    assertTrue(expected.size() > 0);
+
+    HashEquiJoin spilled = new HashEquiJoin(p, new SeqScan(tid, table1.getId()),
+        new SeqScan(tid, table2.getId()), 64 * 1024);
+    assertEquals(expected, joinRows(spilled));
+    assertTrue(spilled.getSpilledBytes() > 0);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A left input with a single key cannot be split by partitioning, so it
+   * is joined a block at a time once partitioning gives up.
+   */
+  @Test public void skewedKeysJoinInBlocks() throws Exception {
+    HashMap<Integer, Integer> columnSpecification = new HashMap<Integer, Integer>();
+    columnSpecification.put(0, 7);
+    HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, columnSpecification, null);
+    HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 20, columnSpecification, null);
+    TransactionId tid = new TransactionId();
+    HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, table1.getId()), new SeqScan(tid, table2.getId()), 16 * 1024);
+    assertEquals(3000 * 20, joinRows(op).size());
+    assertTrue(op.getSpilledBytes() > 0);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * An input spanning several chunks is converted in input order, with
+     * blank lines, Windows line endings and bad lines skipped.
+     */
+    @Test public void convertInOrder() throws Exception {
+        int rowsPerChunk = HeapFileEncoder.CHUNK_PAGES * 504;
+        int rows = 3 * rowsPerChunk + 100;
+        File in = tempFile(".txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < rows; i++) {
+            w.write(i + "," + -i + (i % 7 == 0 ? "\r\n" : "\n"));
+            if (i == 10)
+                w.write("\n");
+            if (i == rowsPerChunk + 5)
+                w.write("1,not a number\n");
+        }
+        w.write(rows + "," + -rows); // no newline at the end
+        w.close();
+
+        File out = tempFile(".dat");
+        HeapFileEncoder.ConvertStats stats = HeapFileEncoder.convert(in, out,
+                BufferPool.getPageSize(), 2, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',');
+        assertEquals(rows + 1, stats.rows);
+        assertEquals(1, stats.badLines);
+        assertEquals(in.length(), stats.bytes);
+
+        HeapFile hf = Utility.openHeapFile(2, out);
+        assertEquals(stats.pages, hf.numPages());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i <= rows; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(Arrays.asList(i, -i), SystemTestUtil.tupleToList(it.next()));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An empty input still gives a file of one empty page.
+     */
+    @Test public void convertEmpty() throws Exception {
+        File out = tempFile(".dat");
+        HeapFileEncoder.ConvertStats stats = HeapFileEncoder.convert(tempFile(".txt"), out,
+                BufferPool.getPageSize(), 2, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',');
+        assertEquals(0, stats.rows);
+        assertEquals(BufferPool.getPageSize(), out.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -121,6 +121,80 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Closing the file, as Catalog.clear does, leaves it readable.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] data = hf.readPage(pid).getPageData();
+        hf.close();
+        hf.close();
+        assertArrayEquals(data, hf.readPage(pid).getPageData());
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(hf, "closed");
+        assertArrayEquals(data, hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * A memory-mapped heap file reads the same pages as a regular one, and
+     * still reads pages appended after the file was mapped.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, "mapped");
+        HeapPageId first = new HeapPageId(mapped.getId(), 0);
+        assertArrayEquals(hf.readPage(first).getPageData(), mapped.readPage(first).getPageData());
+
+        HeapPage appended = new HeapPage(new HeapPageId(mapped.getId(), 1),
+                HeapPage.createEmptyPageData());
+        appended.insertTuple(Utility.getHeapTuple(new int[] { 6, 830 }));
+        mapped.writePage(appended);
+        assertEquals(2, mapped.numPages());
+        assertArrayEquals(appended.getPageData(),
+                mapped.readPage(appended.getId()).getPageData());
+        // and a page past the end still reads as an empty page
+        HeapPage past = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 2));
+        assertEquals(past.getNumEmptySlots(), past.numSlots);
+    }
+
+    /**
+     * Threads reading different pages of the same file concurrently all
+     * get the right bytes.
+     */
+    @Test
+    public void concurrentReadPage() throws Exception {
+        final HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        final int pages = big.numPages();
+        final byte[][] expected = new byte[pages][];
+        for (int i = 0; i < pages; i++)
+            expected[i] = big.readPage(new HeapPageId(big.getId(), i)).getPageData();
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            final int offset = r;
+            readers[r] = new Thread() {
+                public void run() {
+                    try {
+                        for (int round = 0; round < 50; round++) {
+                            int i = (offset + round) % pages;
+                            HeapPageId pid = new HeapPageId(big.getId(), i);
+                            assertArrayEquals(expected[i], big.readPage(pid).getPageData());
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        for (Thread t : readers)
+            t.join();
+        assertEquals(Collections.emptyList(), errors);
+    }
+
     /**
      * JUnit suite target
      */
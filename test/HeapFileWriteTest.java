@@ -6,6 +6,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -43,6 +44,66 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts go to a page with free space without visiting full pages,
+     * and reuse a slot freed by a delete.
+     */
+    @Test public void addTupleUsesFreeSpaceMap() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        Tuple added = Utility.getHeapTuple(1, 2);
+        full.insertTuple(tid, added);
+        assertEquals(3, added.getRecordId().getPageId().pageNumber());
+        for (int i = 0; i < 3; i++)
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(full.getId(), i)));
+
+        DbFileIterator it = full.iterator(tid);
+        it.open();
+        for (int i = 0; i < 504 + 7; i++)
+            it.next();
+        Tuple victim = it.next();
+        it.close();
+        assertEquals(1, victim.getRecordId().getPageId().pageNumber());
+        full.deleteTuple(tid, victim);
+        Tuple reused = Utility.getHeapTuple(2, 2);
+        full.insertTuple(tid, reused);
+        assertEquals(victim.getRecordId(), reused.getRecordId());
+    }
+
+    /**
+     * Writing a page past the end of the file grows it by a whole extent,
+     * and new pages are counted as soon as they are added, before they
+     * reach the disk.
+     */
+    @Test public void growsByExtents() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        long extentLength = (long) (1 + HeapFile.MIN_EXTENT_PAGES) * pageSize;
+        assertEquals(1, empty.numPages());
+        assertEquals(extentLength, empty.getFile().length());
+
+        for (int i = 0; i < 504 * 2 + 1; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, empty.numPages());
+        assertEquals(extentLength, empty.getFile().length());
+
+        // the rest of the extent reads as empty pages once the file is
+        // opened again
+        Database.getCatalog().clear();
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(1 + HeapFile.MIN_EXTENT_PAGES, reopened.numPages());
+        tid = new TransactionId();
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 2 + 1, count);
+    }
+
     /**
      * JUnit suite target
      */
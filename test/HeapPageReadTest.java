@@ -120,6 +120,37 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate)
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+
+        Iterator<Tuple> it = page.iterator(p);
+        for (int[] tup : EXAMPLE_VALUES) {
+            if (tup[0] <= 30000)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertEquals(new IntField(tup[0]), t.getField(0));
+            assertEquals(new IntField(tup[1]), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Modifying a page leaves the bytes it was created from untouched
+     */
+    @Test public void pageDataIsNotShared() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        assertTrue(Arrays.equals(EXAMPLE_DATA, data));
+        assertFalse(Arrays.equals(data, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
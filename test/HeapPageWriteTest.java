@@ -1,9 +1,11 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +128,30 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * The before image and data snapshots share the page's bytes but are
+     * not affected by later changes to the page.
+     */
+    @Test public void snapshotsSurviveWrites() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] original = page.getPageData();
+        ByteBuffer snapshot = page.getPageDataSnapshot();
+
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        page.deleteTuple(page.iterator().next());
+        byte[] modified = page.getPageData();
+
+        byte[] snapshotData = new byte[snapshot.remaining()];
+        snapshot.get(snapshotData);
+        assertArrayEquals(original, snapshotData);
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(8, 2));
+        assertArrayEquals(modified, page.getBeforeImage().getPageData());
+        assertEquals(page.getBeforeImage().getNumEmptySlots() - 1, page.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class KeyTableTest extends SimpleDbTestBase {
+
+    /**
+     * Int keys get ids in the order they are first added, across rehashes,
+     * including keys that collide in the low bits.
+     */
+    @Test public void intKeys() {
+        IntKeyTable t = new IntKeyTable();
+        int n = 10000;
+        for (int i = 0; i < n; i++)
+            assertEquals(i, t.add((i - n / 2) << 12));
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, t.add((i - n / 2) << 12));
+            assertEquals(i, t.find(new IntField((i - n / 2) << 12)));
+            assertEquals((i - n / 2) << 12, t.intKeyAt(i));
+        }
+        assertEquals(n, t.size());
+        assertEquals(-1, t.find(1));
+        assertEquals(new IntField(-n / 2 << 12), t.keyAt(0));
+
+        t.clear();
+        assertEquals(0, t.size());
+        assertEquals(-1, t.find(0));
+        assertEquals(0, t.add(7));
+    }
+
+    @Test public void stringKeys() {
+        KeyTable t = KeyTable.forType(Type.STRING_TYPE);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, t.add(new StringField("key" + i, Type.STRING_LEN)));
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, t.find(new StringField("key" + i, Type.STRING_LEN)));
+        // "Aa" and "BB" have the same hash code
+        int aa = t.add(new StringField("Aa", Type.STRING_LEN));
+        int bb = t.add(new StringField("BB", Type.STRING_LEN));
+        assertTrue(aa != bb);
+        assertEquals(bb, t.find(new StringField("BB", Type.STRING_LEN)));
+        assertEquals(-1, t.find(new StringField("missing", Type.STRING_LEN)));
+        assertEquals(new StringField("key5", Type.STRING_LEN), t.keyAt(5));
+    }
+
+    /**
+     * A join table returns the tuples of a key in the order they were added.
+     */
+    @Test public void joinTableChains() {
+        JoinHashTable table = new JoinHashTable(Type.INT_TYPE);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = Utility.getHeapTuple(i);
+            tuples.add(t);
+            table.add(new IntField(i % 3), t);
+        }
+        assertEquals(1000, table.size());
+        for (int k = 0; k < 3; k++) {
+            int expected = k;
+            for (int row = table.first(new IntField(k)); row >= 0; row = table.next(row)) {
+                assertSame(tuples.get(expected), table.get(row));
+                expected += 3;
+            }
+            assertTrue(expected >= 1000);
+        }
+        assertEquals(-1, table.first(new IntField(3)));
+        table.clear();
+        assertEquals(-1, table.first(new IntField(0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(KeyTableTest.class);
+    }
+}
@@ -0,0 +1,183 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockingTest extends SimpleDbTestBase {
+    private PageId p0, p1, p2;
+    private TransactionId tid1, tid2;
+
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    // just so we have a pointer shorter than Database.getBufferPool
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // create a new empty HeapFile and populate it with three pages.
+        // we should be able to add 504 tuples on an empty page.
+        TransactionId tid = new TransactionId();
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int i = 0; i < 1025; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+
+        // if this fails, complain to the TA
+        assertEquals(3, empty.numPages());
+
+        this.p0 = new HeapPageId(empty.getId(), 0);
+        this.p1 = new HeapPageId(empty.getId(), 1);
+        this.p2 = new HeapPageId(empty.getId(), 2);
+        this.tid1 = new TransactionId();
+        this.tid2 = new TransactionId();
+
+        // forget about locks associated to tid, so they don't conflict with
+        // test cases
+        bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.getPage(tid, p2, Permissions.READ_WRITE).markDirty(true, tid);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Generic unit test structure for BufferPool.getPage() assuming locking.
+     *
+     * @param tid1 the first transaction to acquire a lock
+     * @param pid1 the page the first transaction should lock
+     * @param perm1 the permissions of the first lock
+     * @param tid2 the second transaction to acquire a lock
+     * @param pid2 the page the second transaction should lock
+     * @param perm2 the permissions of the second lock
+     * @param expected true if we expect the second acquisition to succeed;
+     *   false otherwise
+     */
+    public void metaLockTester(
+            TransactionId tid1, PageId pid1, Permissions perm1,
+            TransactionId tid2, PageId pid2, Permissions perm2,
+            boolean expected) throws Exception {
+
+        bp.getPage(tid1, pid1, perm1);
+        grabLock(tid2, pid2, perm2, expected);
+    }
+
+    /**
+     * Generic unit test structure to grab a lock in a new thread.
+     *
+     * @param tid the transaction to acquire a lock
+     * @param pid the page the transaction should lock
+     * @param perm the permissions of the lock
+     * @param expected true if we expect the lock acquisition to succeed;
+     *   false otherwise
+     */
+    public TestUtil.LockGrabber grabLock(TransactionId tid, PageId pid, Permissions perm,
+            boolean expected) throws Exception {
+
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.setDaemon(true);
+        t.start();
+
+        // if we don't have the lock after TIMEOUT, we assume blocking.
+        Thread.sleep(TIMEOUT);
+        assertEquals(expected, t.acquired());
+        assertNull(t.getError());
+        return t;
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() assuming locking.
+     * Acquires two read locks on the same page.
+     */
+    @Test public void acquireReadLocksOnSamePage() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY,
+                tid2, p0, Permissions.READ_ONLY, true);
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() assuming locking.
+     * Acquires a read lock and a write lock on the same page, in that order.
+     */
+    @Test public void acquireReadWriteLocksOnSamePage() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY,
+                tid2, p0, Permissions.READ_WRITE, false);
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() assuming locking.
+     * Acquires a write lock and a read lock on the same page, in that order.
+     */
+    @Test public void acquireWriteReadLocksOnSamePage() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_WRITE,
+                tid2, p0, Permissions.READ_ONLY, false);
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() assuming locking.
+     * Acquires a read lock and a write lock on different pages.
+     */
+    @Test public void acquireReadWriteLocksOnTwoPages() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY,
+                tid2, p1, Permissions.READ_WRITE, true);
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() assuming locking.
+     * Attempts to upgrade a shared lock held alone, which must succeed.
+     */
+    @Test public void lockUpgrade() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(tid1, p0));
+
+        // the upgraded lock now excludes other readers
+        grabLock(tid2, p0, Permissions.READ_ONLY, false);
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() assuming locking.
+     * An upgrade must wait while another transaction shares the page.
+     */
+    @Test public void lockUpgradeBlocksOnOtherSharer() throws Exception {
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        metaLockTester(tid1, p0, Permissions.READ_ONLY,
+                tid1, p0, Permissions.READ_WRITE, false);
+    }
+
+    /**
+     * Unit test for BufferPool.releasePage() and transactionComplete().
+     * A blocked request is granted as soon as the conflicting lock goes.
+     */
+    @Test public void releaseWakesWaiter() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid1, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = grabLock(tid2, p0, Permissions.READ_ONLY, false);
+
+        bp.releasePage(tid1, p0);
+        assertFalse(bp.holdsLock(tid1, p0));
+        t.join(TIMEOUT * 10);
+        assertTrue(t.acquired());
+
+        bp.transactionComplete(tid1);
+        assertFalse(bp.holdsLock(tid1, p1));
+        grabLock(tid2, p1, Permissions.READ_WRITE, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
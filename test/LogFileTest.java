@@ -0,0 +1,234 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    @After public void tearDown() {
+        Database.getLogFile().disableGroupCommit();
+        Database.getLogFile().disableBackgroundWriter();
+    }
+
+    /**
+     * Start and commit a transaction that wrote nothing, or that inserted
+     * a tuple into the given table.
+     */
+    private static class Committer extends Thread {
+        private final HeapFile table;
+        Exception error = null;
+
+        Committer() {
+            this(null);
+        }
+
+        Committer(HeapFile table) {
+            this.table = table;
+        }
+
+        public void run() {
+            try {
+                Transaction t = new Transaction();
+                t.start();
+                if (table != null)
+                    Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                            Utility.getHeapTuple(7, 2));
+                t.commit();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Without group commit every commit forces the log.
+     */
+    @Test public void forcePerCommit() throws Exception {
+        LogFile log = Database.getLogFile();
+        for (int i = 0; i < 3; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            t.commit();
+        }
+        assertEquals(3, log.getCommitCount());
+        assertEquals(3, log.getForceCount());
+    }
+
+    /**
+     * A full batch of concurrent commits is made durable by one force.
+     */
+    @Test public void groupCommitBatchesForces() throws Exception {
+        final int batch = 4;
+        LogFile log = Database.getLogFile();
+        // long enough that only a full batch can trigger the force
+        log.enableGroupCommit(60000, batch);
+
+        ArrayList<Committer> committers = new ArrayList<Committer>();
+        for (int i = 0; i < batch; i++) {
+            Committer c = new Committer();
+            committers.add(c);
+            c.start();
+        }
+        for (Committer c : committers) {
+            c.join(10000);
+            assertFalse(c.isAlive());
+            assertNull(c.error);
+        }
+        assertEquals(batch, log.getCommitCount());
+        assertEquals(1, log.getForceCount());
+        assertEquals((double) batch, log.getCommitsPerForce(), 0.0);
+    }
+
+    /**
+     * Concurrent commits that each dirtied a page share the force of their
+     * UPDATE records as well as of their commit records.
+     */
+    @Test public void groupCommitBatchesPageWrites() throws Exception {
+        final int batch = 4;
+        ArrayList<Committer> committers = new ArrayList<Committer>();
+        for (int i = 0; i < batch; i++)
+            committers.add(new Committer(SystemTestUtil.createRandomHeapFile(2, 10, null, null)));
+        LogFile log = Database.getLogFile();
+        log.enableGroupCommit(60000, batch);
+
+        for (Committer c : committers)
+            c.start();
+        for (Committer c : committers) {
+            c.join(10000);
+            assertFalse(c.isAlive());
+            assertNull(c.error);
+        }
+        assertEquals(batch, log.getCommitCount());
+        // one force for the UPDATE records and one for the commit records
+        assertEquals(2, log.getForceCount());
+        assertTrue(log.getForceCount() < log.getCommitCount());
+    }
+
+    /**
+     * A lone commit is not held back longer than the configured delay.
+     */
+    @Test public void groupCommitHonorsMaxDelay() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.enableGroupCommit(50, 1000);
+
+        long start = System.currentTimeMillis();
+        Transaction t = new Transaction();
+        t.start();
+        t.commit();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("commit took " + elapsed + "ms", elapsed < 5000);
+        assertEquals(1, log.getForceCount());
+    }
+
+    /**
+     * Disabling group commit releases the flusher and restores forcing
+     * on every commit.
+     */
+    @Test public void disableGroupCommit() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.enableGroupCommit(10, 8);
+        log.disableGroupCommit();
+
+        Transaction t = new Transaction();
+        t.start();
+        t.commit();
+        assertEquals(1, log.getForceCount());
+    }
+
+    /**
+     * An UPDATE record of a transaction still running at a checkpoint
+     * survives the log truncation and reads back as the same page.
+     */
+    @Test public void updateRecordSurvivesTruncation() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        Page page = hf.readPage(new HeapPageId(hf.getId(), 0));
+
+        File f = File.createTempFile("logtest", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, page, page);
+        log.logCheckpoint();
+
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            raf.seek(log.tidToFirstLogRecord.get(tid.getId()));
+            assertEquals(LogFile.BEGIN_RECORD, raf.readInt());
+            assertEquals(tid.getId(), raf.readLong());
+            raf.readLong();
+            assertEquals(LogFile.UPDATE_RECORD, raf.readInt());
+            assertEquals(tid.getId(), raf.readLong());
+            for (int i = 0; i < 2; i++) {
+                Page read = log.readPageData(raf);
+                assertEquals(page.getId(), read.getId());
+                assertArrayEquals(page.getPageData(), read.getPageData());
+            }
+        } finally {
+            raf.close();
+            log.shutdown();
+        }
+    }
+
+    /**
+     * A checkpoint leaves the pages of running transactions in the buffer
+     * pool and reports how long it held up the log.
+     */
+    @Test public void checkpointDoesNotWriteUncommittedPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        byte[] onDisk = hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData();
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(7, 2));
+        LogFile log = Database.getLogFile();
+        log.logCheckpoint();
+
+        assertArrayEquals(onDisk, hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData());
+        assertEquals(1, log.getCheckpointCount());
+        assertTrue(log.getLastCheckpointStallNanos() > 0);
+        assertTrue(log.getLastCheckpointStallNanos() <= log.getLastCheckpointNanos());
+        assertEquals(log.getLastCheckpointStallNanos(), log.getMaxCheckpointStallNanos());
+        t.commit();
+    }
+
+    /**
+     * Committed pages stay in the dirty page table until the background
+     * writer has forced their file.
+     */
+    @Test public void backgroundWriterDrainsDirtyPageTable() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        LogFile log = Database.getLogFile();
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(7, 2));
+        t.commit();
+        assertEquals(1, log.getDirtyPageCount());
+
+        log.enableBackgroundWriter(10, 1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (log.getDirtyPageCount() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, log.getDirtyPageCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 2;
+
+    /**
+     * The tuples of table sorted on field, stably, in memory.
+     */
+    private static ArrayList<String> sorted(HeapFile table, int field, boolean asc,
+            TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, table.getId());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        scan.open();
+        while (scan.hasNext())
+            tuples.add(scan.next());
+        scan.close();
+        Collections.sort(tuples, new OrderBy.TupleComparator(field, asc));
+        ArrayList<String> rows = new ArrayList<String>();
+        for (Tuple t : tuples)
+            rows.add(t.toString());
+        return rows;
+    }
+
+    @Test public void sortsInMemory() throws Exception {
+        DbIterator child = TestUtil.createTupleList(COLUMNS,
+                new int[] { 3, 1, 1, 2, 2, 3, 1, 4 });
+        OrderBy op = new OrderBy(0, true, child);
+        op.open();
+        assertEquals(Arrays.asList("1\t2\n", "1\t4\n", "2\t3\n", "3\t1\n"), TestUtil.rows(op));
+        op.rewind();
+        assertEquals(4, TestUtil.rows(op).size());
+        op.close();
+        assertEquals(0, op.getSpilledBytes());
+    }
+
+    /**
+     * A sort over budget spills sorted runs and merges them into the same
+     * order, ties included, as a sort in memory.
+     */
+    @Test public void spillsOverBudget() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 20000, 500, null, null);
+        TransactionId tid = new TransactionId();
+        for (boolean asc : new boolean[] { true, false }) {
+            OrderBy op = new OrderBy(0, asc, new SeqScan(tid, table.getId()), 64 * 1024);
+            op.open();
+            assertEquals(sorted(table, 0, asc, tid), TestUtil.rows(op));
+            assertTrue(op.getSpilledBytes() > 0);
+            op.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * More runs than one pass can merge take more than one pass, and the
+     * result can be read again after a rewind.
+     */
+    @Test public void mergesInPasses() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 5000, 100, null, null);
+        TransactionId tid = new TransactionId();
+        long budget = SpillFile.heapBytes(table.getTupleDesc()) * 20;
+        OrderBy op = new OrderBy(1, true, new SeqScan(tid, table.getId()), budget);
+        op.open();
+        ArrayList<String> expected = sorted(table, 1, true, tid);
+        assertEquals(expected, TestUtil.rows(op));
+        // each tuple is written by the first and a second pass
+        assertTrue(op.getSpilledBytes() > 5000L * table.getTupleDesc().getSize());
+        op.rewind();
+        assertEquals(expected, TestUtil.rows(op));
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    // 504 two-int tuples fit on a heap page
+    private static final int PAGES = 30;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static void awaitCached(PageId pid) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!Database.getBufferPool().isCached(pid) && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertTrue(Database.getBufferPool().isCached(pid));
+    }
+
+    /**
+     * Two consecutive pages start the read-ahead; a page found in the pool
+     * after it was prefetched is a hit, and a jump stops the read-ahead.
+     */
+    @Test public void sequentialPagesArePrefetched() throws Exception {
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        int window = Database.getBufferPool().getReadAheadWindow();
+        assertTrue(window > 0);
+        ReadAhead ra = new ReadAhead(n -> new HeapPageId(hf.getId(), n), hf::numPages);
+
+        ra.beforeRead(0);
+        assertEquals(0, ra.getPrefetched());
+        ra.beforeRead(1);
+        assertEquals(window, ra.getPrefetched());
+        awaitCached(new HeapPageId(hf.getId(), 2));
+        ra.beforeRead(2);
+        assertEquals(1, ra.getHits());
+        // the window moves along with the scan
+        assertEquals(window + 1, ra.getPrefetched());
+
+        ra.beforeRead(20);
+        assertEquals(window + 1, ra.getPrefetched());
+        assertEquals(4, ra.getPagesRead());
+    }
+
+    /**
+     * A heap scan reads ahead, and returns the same tuples.
+     */
+    @Test public void heapScanReadsAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        SystemTestUtil.matchTuples(scan, tuples);
+        ReadAhead ra = scan.getReadAhead();
+        assertEquals(PAGES, ra.getPagesRead());
+        // every page but the first two
+        assertEquals(PAGES - 2, ra.getPrefetched());
+        assertTrue(ra.getHits() <= ra.getPrefetched());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A B+ tree scan prefetches the leaves its parent lists after the
+     * current one, and returns the same tuples.
+     */
+    @Test public void btreeScanReadsAhead() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 502 * PAGES, null, tuples, 0);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(tuples.size(), count);
+        ReadAhead ra = it.getReadAhead();
+        assertTrue(ra.getPagesRead() >= PAGES);
+        assertTrue(ra.getPrefetched() > 0);
+        assertTrue(ra.getHits() <= ra.getPrefetched());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Read-ahead can be turned off.
+     */
+    @Test public void windowOfZeroTurnsItOff() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        Database.getBufferPool().setReadAheadWindow(0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        assertEquals(PAGES, it.getReadAhead().getPagesRead());
+        assertEquals(0, it.getReadAhead().getPrefetched());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
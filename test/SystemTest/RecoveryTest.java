@@ -0,0 +1,199 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Crash recovery tests. A workload of inserting transactions, with a
+ * checkpoint every few transactions, is run once while the bytes of the
+ * log and of the table are captured after every step that reaches disk.
+ * Crashes are then simulated by cutting the log at random offsets between
+ * two captures, restoring the table as it was at the earlier one or at
+ * any capture since the table file was last forced, and running
+ * recovery: the table must hold exactly the tuples of the transactions
+ * whose commit record survived the cut.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+    private static final int TRANSACTIONS = 100;
+    private static final int TUPLES_PER_TRANSACTION = 40;
+    private static final int CHECKPOINT_EVERY = 5;
+    private static final int CRASHES = 30;
+    // BEGIN, COMMIT and an UPDATE for each of at most two pages, logged
+    // at the checkpoint and again at commit
+    private static final int MAX_RECORDS_PER_TRANSACTION = 6;
+
+    /** What is on disk after one step of the workload. */
+    private static class Snapshot {
+        final byte[] log;
+        final byte[] table;
+        final int committed;
+        final boolean logRewritten; // the log was truncated by this step
+        final boolean tableForced; // every table write so far is durable
+
+        Snapshot(File log, File table, int committed, boolean logRewritten,
+                boolean tableForced) throws IOException {
+            this.log = Files.readAllBytes(log.toPath());
+            this.table = Files.readAllBytes(table.toPath());
+            this.committed = committed;
+            this.logRewritten = logRewritten;
+            this.tableForced = tableForced;
+        }
+    }
+
+    private static ArrayList<Integer> row(int txn, int i) {
+        return new ArrayList<Integer>(Arrays.asList(txn, i));
+    }
+
+    private static void insert(TransactionId tid, HeapFile hf, ArrayList<Integer> row)
+            throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { row.get(0), row.get(1) });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+    }
+
+    /** Checkpoints force the table themselves. */
+    @Test public void recoverFromCrashAtRandomLogOffsets() throws Exception {
+        crashAndRecover(false);
+    }
+
+    /**
+     * Checkpoints are taken while a background writer owns forcing the
+     * table, so they record a dirty page table and redo may have to start
+     * before them.
+     */
+    @Test public void recoverFromCrashWithFuzzyCheckpoints() throws Exception {
+        // the writer never wakes up; its rounds are run by hand below
+        Database.getLogFile().enableBackgroundWriter(Long.MAX_VALUE, 1);
+        try {
+            crashAndRecover(true);
+        } finally {
+            Database.getLogFile().disableBackgroundWriter();
+        }
+    }
+
+    private void crashAndRecover(boolean fuzzy) throws Exception {
+        File logFile = new File("log");
+        File tableFile = File.createTempFile("recovery", ".dat");
+        tableFile.deleteOnExit();
+        HeapFile hf = Utility.openHeapFile(2, tableFile);
+
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Snapshot> snapshots = new ArrayList<Snapshot>();
+        for (int txn = 0; txn < TRANSACTIONS; txn++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < TUPLES_PER_TRANSACTION; i++) {
+                rows.add(row(txn, i));
+                insert(t.getId(), hf, rows.get(rows.size() - 1));
+            }
+            if (txn % CHECKPOINT_EVERY == CHECKPOINT_EVERY - 1) {
+                // taken while t is running
+                Database.getLogFile().logCheckpoint();
+                snapshots.add(new Snapshot(logFile, tableFile, txn, true, !fuzzy));
+                if (fuzzy) {
+                    Database.getLogFile().syncDataFiles(Integer.MAX_VALUE);
+                    snapshots.add(new Snapshot(logFile, tableFile, txn, false, true));
+                }
+            }
+            Database.getBufferPool().flushPages(t.getId());
+            snapshots.add(new Snapshot(logFile, tableFile, txn, false, false));
+            t.commit();
+            snapshots.add(new Snapshot(logFile, tableFile, txn + 1, false, false));
+        }
+        Database.getLogFile().disableBackgroundWriter();
+
+        Random rand = new Random(6830);
+        for (int crash = 0; crash < CRASHES; crash++) {
+            int s;
+            do {
+                s = rand.nextInt(snapshots.size() - 1);
+            } while (snapshots.get(s + 1).logRewritten);
+            Snapshot before = snapshots.get(s);
+            Snapshot after = snapshots.get(s + 1);
+            // a third of the crashes hit just after a step completed
+            int cut = rand.nextInt(3) == 0 ? after.log.length
+                : before.log.length + rand.nextInt(after.log.length - before.log.length + 1);
+            int committed = cut == after.log.length ? after.committed : before.committed;
+
+            Files.write(logFile.toPath(), Arrays.copyOf(after.log, cut));
+            // page writes since the table was last forced may be lost too
+            int forced = s;
+            while (forced > 0 && !snapshots.get(forced).tableForced)
+                forced--;
+            Snapshot table = snapshots.get(forced + rand.nextInt(s - forced + 1));
+            Files.write(tableFile.toPath(), table.table);
+            Database.reset();
+            hf = Utility.openHeapFile(2, tableFile);
+            Database.getLogFile().recover();
+
+            SystemTestUtil.matchTuples(hf,
+                    rows.subList(0, committed * TUPLES_PER_TRANSACTION));
+            // a fuzzy checkpoint may also need the interval before it
+            long bound = (fuzzy ? 6L : 3L) * (CHECKPOINT_EVERY + 1) * MAX_RECORDS_PER_TRANSACTION;
+            long read = Database.getLogFile().getRecoveryRecordsRead();
+            assertTrue("recovery read " + read + " records", read <= bound);
+        }
+    }
+
+    /**
+     * Recovering twice gives the same result: the first recovery logged
+     * the aborts of the transactions it rolled back.
+     */
+    @Test public void recoveryIsIdempotent() throws Exception {
+        File tableFile = File.createTempFile("recovery", ".dat");
+        tableFile.deleteOnExit();
+        HeapFile hf = Utility.openHeapFile(2, tableFile);
+
+        Transaction committed = new Transaction();
+        committed.start();
+        insert(committed.getId(), hf, row(0, 0));
+        committed.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(loser.getId(), hf, row(1, 0));
+        Database.getBufferPool().flushPages(loser.getId());
+        List<ArrayList<Integer>> expected = Arrays.asList(row(0, 0));
+
+        for (int i = 0; i < 2; i++) {
+            Database.reset();
+            hf = Utility.openHeapFile(2, tableFile);
+            Database.getLogFile().recover();
+            SystemTestUtil.matchTuples(hf, expected);
+        }
+    }
+
+    /**
+     * Aborting a transaction whose pages flushAllPages already wrote to
+     * disk puts the committed versions back.
+     */
+    @Test public void abortRollsBackStolenPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), hf, row(-1, -1));
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+
+        SystemTestUtil.matchTuples(hf, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -166,6 +166,18 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the remaining tuples of the open DbIterator as strings, in
+     *   the order it returns them
+     */
+    public static ArrayList<String> rows(DbIterator it)
+        throws TransactionAbortedException, DbException {
+        ArrayList<String> rows = new ArrayList<String>();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        return rows;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
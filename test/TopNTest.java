@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 2;
+
+    /**
+     * TopN returns the first n tuples OrderBy does, ties included, for
+     * limits below, at and above the size of the input.
+     */
+    @Test public void matchesOrderBy() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, 100, null, null);
+        TransactionId tid = new TransactionId();
+        for (boolean asc : new boolean[] { true, false }) {
+            OrderBy sort = new OrderBy(0, asc, new SeqScan(tid, table.getId()));
+            sort.open();
+            ArrayList<String> sorted = TestUtil.rows(sort);
+            sort.close();
+            for (int limit : new int[] { 0, 1, 50, 2999, 3000, 5000 }) {
+                TopN op = new TopN(0, asc, limit, new SeqScan(tid, table.getId()));
+                op.open();
+                assertEquals(sorted.subList(0, Math.min(limit, sorted.size())), TestUtil.rows(op));
+                op.rewind();
+                assertEquals(Math.min(limit, sorted.size()), TestUtil.rows(op).size());
+                op.close();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner fuses ORDER BY with a following LIMIT into a TopN, and
+     * plans a LIMIT on its own as a Limit.
+     */
+    @Test public void plannedFromLimit() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, 100, null, null, "c");
+        Database.getCatalog().addTable(table, "T");
+        TableStats.setTableStats("T", new TableStats(table.getId(), 19));
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+
+        DbIterator plan = p.generateLogicalPlan(tid,
+                "SELECT * FROM T t ORDER BY t.c1 DESC;").physicalPlan(tid,
+                TableStats.getStatsMap(), false);
+        plan.open();
+        ArrayList<String> sorted = TestUtil.rows(plan);
+        plan.close();
+
+        plan = p.generateLogicalPlan(tid,
+                "SELECT * FROM T t ORDER BY t.c1 DESC LIMIT 5;").physicalPlan(tid,
+                TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+        plan.open();
+        assertEquals(sorted.subList(0, 5), TestUtil.rows(plan));
+        plan.close();
+
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM T t LIMIT 7;").physicalPlan(tid,
+                TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+        plan.open();
+        assertEquals(7, TestUtil.rows(plan).size());
+        plan.close();
+
+        assertEquals(-1, Parser.parseLimit("SELECT * FROM T t;"));
+        assertEquals(12, Parser.parseLimit("SELECT * FROM T t\n limit 12 ;"));
+        assertEquals("SELECT * FROM T t ;", Parser.stripLimit("SELECT * FROM T t LIMIT 12 ;"));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}